@@ -0,0 +1,72 @@
+package bench;
+
+import audio.AudioProcessor;
+import audio.BiquadEffect;
+import audio.ConvolutionEffect;
+import audio.DelayEffect;
+import audio.GainEffect;
+import audio.LowPassEffect;
+import audio.PitchDetector;
+import audio.STFTAnalyzer;
+import math.Precision;
+import math.Window;
+
+import java.lang.management.ManagementFactory;
+
+/** Checks that the steady-state capture, process and playback loop of AudioProcessor allocates nothing. */
+public class AllocationCheck {
+
+    /** @return the number of bytes allocated per frame by AudioProcessor.processFrame() */
+    public static double bytesPerFrame(AudioProcessor audioProcessor, int frames) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Warm up so that the buffers are sized and the code is compiled
+        for (int i = 0; i < 20_000; i++) {
+            audioProcessor.processFrame();
+        }
+
+        // Best of three runs, the JIT may still be compiling during the first one (the Vector API
+        // code allocates until it is compiled)
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < frames; i++) {
+                audioProcessor.processFrame();
+            }
+            best = Math.min(best, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+
+        return (double) best / frames;
+    }
+
+    /**
+     * Exits with status 1 if any frame size allocates.
+     * @param args (Empty)
+     */
+    public static void main(String[] args) {
+        boolean allocates = false;
+        for (int frameSize : new int[]{64, 256, 480, 1024, 4096}) {
+            FakeTargetDataLine audioInput = FakeTargetDataLine.sine(44000);
+            FakeSourceDataLine audioOutput = new FakeSourceDataLine(audioInput.getFormat());
+            AudioProcessor audioProcessor = new AudioProcessor(audioInput, audioOutput, frameSize);
+
+            double bytes = bytesPerFrame(audioProcessor, 10_000);
+            System.out.println("frameSize=" + frameSize + " allocated " + bytes + " bytes/frame");
+            allocates |= bytes > 0;
+
+            audioProcessor.getEffectChain().setEffects(new GainEffect(-6), new LowPassEffect(2000), new DelayEffect(0.25, 0.4, 0.3),
+                    new ConvolutionEffect(new double[8192], 256), BiquadEffect.octaveEqualizer());
+            audioProcessor.setPitchDetector(new PitchDetector(2048, 220, 44000));
+            bytes = bytesPerFrame(audioProcessor, 10_000);
+            System.out.println("frameSize=" + frameSize + " with effects allocated " + bytes + " bytes/frame");
+            allocates |= bytes > 0;
+
+            AudioProcessor floatProcessor = new AudioProcessor(audioInput, audioOutput, frameSize, Precision.FLOAT);
+            floatProcessor.setAnalyzer(new STFTAnalyzer(2048, 441, Window.HANN, 44000, Precision.FLOAT));
+            bytes = bytesPerFrame(floatProcessor, 10_000);
+            System.out.println("frameSize=" + frameSize + " in float allocated " + bytes + " bytes/frame");
+            allocates |= bytes > 0;
+        }
+        System.exit(allocates ? 1 : 0);
+    }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import audio.*;
+import math.Window;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of BatchProcessor with the number of worker threads. Each operation processes a batch of
+ * short clips through a gain, a low-pass filter and an STFT analyzer; with near-linear scaling the
+ * throughput grows with the number of threads up to the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+    private static final int CLIPS = 32;
+    private static final float SAMPLE_RATE = 44100;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private File directory;
+    private List<File> clips;
+    private BatchProcessor batchProcessor;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = File.createTempFile("batch", "");
+        directory.delete();
+        new File(directory, "out").mkdirs();
+
+        // Two seconds of sine wave per clip, written the same way as a recorded file
+        FakeTargetDataLine sine = FakeTargetDataLine.sine(SAMPLE_RATE);
+        byte[] pcm = new byte[4 * (int) SAMPLE_RATE];
+        sine.read(pcm, 0, pcm.length);
+        AudioFormat format = sine.getFormat();
+        clips = new ArrayList<>();
+        for (int i = 0; i < CLIPS; i++) {
+            File clip = new File(directory, "clip" + i + ".wav");
+            AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(pcm), format, pcm.length / 2);
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, clip);
+            clips.add(clip);
+        }
+
+        batchProcessor = new BatchProcessor(threads, 4096, audioProcessor -> {
+            audioProcessor.getEffectChain().setEffects(new GainEffect(-6), new LowPassEffect(2000));
+            audioProcessor.setAnalyzer(new STFTAnalyzer(1024, 256, Window.HANN, SAMPLE_RATE));
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        batchProcessor.close();
+        File[] files = new File(directory, "out").listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            file.delete();
+        }
+        for (File clip : clips) {
+            clip.delete();
+        }
+        new File(directory, "out").delete();
+        directory.delete();
+    }
+
+    /** One batch of 32 clips of two seconds. */
+    @Benchmark
+    public List<BatchProcessor.Outcome> processBatch() throws InterruptedException {
+        return batchProcessor.process(clips, new File(directory, "out"));
+    }
+}
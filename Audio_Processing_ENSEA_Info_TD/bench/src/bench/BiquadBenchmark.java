@@ -0,0 +1,100 @@
+package bench;
+
+import audio.BiquadEffect;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 10 bands octave EQ on one frame, against the frame size. cascade() is BiquadEffect, static loops
+ * running two sections at a time over the frame; perSample() is the textbook alternative, one object per section
+ * called through an interface for every sample, whose state goes back to memory at each call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BiquadBenchmark {
+    @Param({"64", "256", "1024", "4096"})
+    public int frameSize;
+
+    private double[] frame;
+    private BiquadEffect equalizer;
+    private Filter[] sections;
+
+    /** A filter processing one sample at a time. */
+    interface Filter {
+        double process(double x);
+    }
+
+    static final class Section implements Filter {
+        private final double b0, b1, b2, a1, a2;
+        private double z1, z2;
+
+        Section(double[] c, int offset) {
+            b0 = c[offset];
+            b1 = c[offset + 1];
+            b2 = c[offset + 2];
+            a1 = c[offset + 3];
+            a2 = c[offset + 4];
+        }
+
+        @Override
+        public double process(double x) {
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            return y;
+        }
+    }
+
+    /** A gain that does nothing, so that the call site sees two classes as in a real filter graph. */
+    static final class Unity implements Filter {
+        @Override
+        public double process(double x) {
+            return x;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        frame = new double[frameSize];
+        for (int i = 0; i < frameSize; i++) {
+            frame[i] = (random.nextDouble() * 2 - 1) * 0.1;
+        }
+
+        equalizer = BiquadEffect.octaveEqualizer();
+        equalizer.prepare(frameSize, 44100, 1);
+        double[] coefficients = new double[5];
+        sections = new Filter[BiquadEffect.OCTAVE_FREQUENCIES.length + 1];
+        for (int s = 0; s < BiquadEffect.OCTAVE_FREQUENCIES.length; s++) {
+            double gain = s % 2 == 0 ? 3 : -3;
+            equalizer.setGainIndB(s, gain);
+            equalizer.getType(s).design(coefficients, 0, equalizer.getFrequency(s), equalizer.getQ(s), gain, 44100);
+            sections[s] = new Section(coefficients, 0);
+        }
+        sections[sections.length - 1] = new Unity();
+    }
+
+    @Benchmark
+    public double[] cascade() {
+        equalizer.process(frame, frameSize);
+        return frame;
+    }
+
+    @Benchmark
+    public double[] perSample() {
+        for (int i = 0; i < frameSize; i++) {
+            double x = frame[i];
+            for (Filter section : sections) {
+                x = section.process(x);
+            }
+            frame[i] = x;
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import math.Complex;
+import math.FFT;
+import math.FloatFFT;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the FFT entry points, on powers of 2, which run the radix-2 plan and its vector
+ * butterflies, and on the sizes users actually type (480, 960, 1500), which run the mixed radix plan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FFTBenchmark {
+    @Param({"256", "480", "960", "1024", "1500", "4096", "16384", "65536"})
+    public int size;
+
+    private double[] signal;
+    private Complex[] complexSignal;
+    private double[] re, im;
+    private double[] halfRe, halfIm;
+    private float[] floatSignal, floatHalfRe, floatHalfIm;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        signal = new double[size];
+        for (int i = 0; i < size; i++) {
+            signal[i] = random.nextDouble() * 2 - 1;
+        }
+        complexSignal = Complex.fromArray(signal);
+        re = new double[size];
+        im = new double[size];
+        halfRe = new double[size / 2 + 1];
+        halfIm = new double[size / 2 + 1];
+
+        floatSignal = new float[size];
+        for (int i = 0; i < size; i++) {
+            floatSignal[i] = (float) signal[i];
+        }
+        floatHalfRe = new float[size / 2 + 1];
+        floatHalfIm = new float[size / 2 + 1];
+
+        // Build the plans outside of the measurement
+        FFT.fft(re, im);
+        FFT.realFFT(signal, halfRe, halfIm);
+        FloatFFT.realFFT(floatSignal, floatHalfRe, floatHalfIm);
+    }
+
+    @Benchmark
+    public Complex[] complexArray() {
+        return FFT.fft(complexSignal);
+    }
+
+    @Benchmark
+    public double[] inPlace() {
+        System.arraycopy(signal, 0, re, 0, size);
+        Arrays.fill(im, 0);
+        FFT.fft(re, im);
+        return re;
+    }
+
+    @Benchmark
+    public double[] realInput() {
+        FFT.realFFT(signal, halfRe, halfIm);
+        return halfRe;
+    }
+
+    /** Same as realInput() in single precision. */
+    @Benchmark
+    public float[] floatRealInput() {
+        FloatFFT.realFFT(floatSignal, floatHalfRe, floatHalfIm);
+        return floatHalfRe;
+    }
+}
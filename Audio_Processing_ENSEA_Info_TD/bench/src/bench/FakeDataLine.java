@@ -0,0 +1,91 @@
+package bench;
+
+import javax.sound.sampled.*;
+
+/** The bookkeeping part of a DataLine, shared by the fake lines used to run the audio code
+ * without a sound card. Nothing ever blocks. */
+public abstract class FakeDataLine implements DataLine {
+    protected final AudioFormat format;
+    private final Class<?> lineClass;
+    private final int bufferSize;
+    private boolean open, running;
+
+    protected FakeDataLine(Class<?> lineClass, AudioFormat format, int bufferSize) {
+        this.lineClass = lineClass;
+        this.format = format;
+        this.bufferSize = bufferSize;
+    }
+
+    // Implements open() of TargetDataLine and SourceDataLine
+    public void open(AudioFormat format, int bufferSize) { open = true; }
+
+    public void open(AudioFormat format) { open = true; }
+
+    @Override
+    public void open() { open = true; }
+
+    @Override
+    public void close() { open = false; running = false; }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public void start() { running = true; }
+
+    @Override
+    public void stop() { running = false; }
+
+    @Override
+    public boolean isRunning() { return running; }
+
+    @Override
+    public boolean isActive() { return running; }
+
+    @Override
+    public void drain() { }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public AudioFormat getFormat() { return format; }
+
+    @Override
+    public int getBufferSize() { return bufferSize; }
+
+    @Override
+    public int available() { return bufferSize; }
+
+    @Override
+    public int getFramePosition() { return 0; }
+
+    @Override
+    public long getLongFramePosition() { return 0; }
+
+    @Override
+    public long getMicrosecondPosition() { return 0; }
+
+    @Override
+    public float getLevel() { return AudioSystem.NOT_SPECIFIED; }
+
+    @Override
+    public Line.Info getLineInfo() { return new DataLine.Info(lineClass, format); }
+
+    @Override
+    public Control[] getControls() { return new Control[0]; }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) { return false; }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("No control on a fake line");
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) { }
+
+    @Override
+    public void removeLineListener(LineListener listener) { }
+}
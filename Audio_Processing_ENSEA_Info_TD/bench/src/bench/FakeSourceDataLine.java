@@ -0,0 +1,22 @@
+package bench;
+
+import javax.sound.sampled.*;
+
+/** A SourceDataLine that never blocks and discards everything written to it. */
+public class FakeSourceDataLine extends FakeDataLine implements SourceDataLine {
+    private long bytesWritten;
+
+    public FakeSourceDataLine(AudioFormat format) {
+        super(SourceDataLine.class, format, 1 << 16);
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        bytesWritten += len;
+        return len;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import javax.sound.sampled.*;
+
+/** A TargetDataLine that never blocks and endlessly returns the same PCM bytes,
+ * so that the decoding in AudioSignal.recordFrom can be measured without a sound card. */
+public class FakeTargetDataLine extends FakeDataLine implements TargetDataLine {
+    private final byte[] pcm;
+    private int position;
+
+    /**
+     * @param format the format returned by getFormat()
+     * @param pcm the bytes that are read again and again
+     */
+    public FakeTargetDataLine(AudioFormat format, byte[] pcm) {
+        super(TargetDataLine.class, format, pcm.length);
+        this.pcm = pcm;
+    }
+
+    /** @return a line playing a 1000Hz sine wave in signed 16 bits big endian mono */
+    public static FakeTargetDataLine sine(float sampleRate) {
+        int samples = (int) sampleRate; // one second
+        byte[] pcm = new byte[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            short value = (short) (Math.sin(2.0 * Math.PI * 1000 * i / sampleRate) * Short.MAX_VALUE);
+            pcm[2 * i] = (byte) (value >> 8);
+            pcm[2 * i + 1] = (byte) value;
+        }
+        return new FakeTargetDataLine(new AudioFormat(sampleRate, 16, 1, true, true), pcm);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int copied = 0;
+        while (copied < len) {
+            int n = Math.min(len - copied, pcm.length - position);
+            System.arraycopy(pcm, position, b, off + copied, n);
+            copied += n;
+            position = (position + n) % pcm.length;
+        }
+        return len;
+    }
+}
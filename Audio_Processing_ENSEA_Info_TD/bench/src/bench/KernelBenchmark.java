@@ -0,0 +1,94 @@
+package bench;
+
+import math.Kernels;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the scalar kernels against the ones chosen at startup, which are the Vector API
+ * ones as the benchmark JVM is started with the incubator module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+    @Param({"scalar", "selected"})
+    public String kernels;
+
+    @Param({"256", "4096"})
+    public int size;
+
+    private Kernels implementation;
+    private byte[] pcm;
+    private double[] x, y;
+    private double[] re, im, cos, sin;
+
+    @Setup
+    public void setup() {
+        implementation = kernels.equals("scalar") ? Kernels.scalar() : Kernels.get();
+        Random random = new Random(42);
+        pcm = new byte[2 * size];
+        random.nextBytes(pcm);
+        x = new double[size];
+        y = new double[size];
+        re = new double[size];
+        im = new double[size];
+        cos = new double[size - 1];
+        sin = new double[size - 1];
+        for (int i = 0; i < size; i++) {
+            x[i] = random.nextDouble() * 2 - 1;
+            y[i] = random.nextDouble() * 2 - 1;
+        }
+        for (int k = 0; k < size - 1; k++) {
+            cos[k] = random.nextDouble();
+            sin[k] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public double[] decodePCM16BE() {
+        implementation.decodePCM16BE(pcm, x, size);
+        return x;
+    }
+
+    @Benchmark
+    public double[] decodePCM16LE() {
+        implementation.decodePCM16LE(pcm, x, size);
+        return x;
+    }
+
+    @Benchmark
+    public double sumOfSquares() {
+        return implementation.sumOfSquares(x, size);
+    }
+
+    /** Gain and back, so that the values stay the same from one call to the next. */
+    @Benchmark
+    public double[] scale() {
+        implementation.scale(y, size, 2);
+        implementation.scale(y, size, 0.5);
+        return y;
+    }
+
+    @Benchmark
+    public double[] mix() {
+        implementation.mix(x, 0, 0.5, y, 0, 0.5, re, 0, size);
+        return re;
+    }
+
+    /** All the stages of a radix-2 FFT of size points, without the bit-reversal. */
+    @Benchmark
+    public double[] butterflies() {
+        System.arraycopy(x, 0, re, 0, size);
+        System.arraycopy(y, 0, im, 0, size);
+        for (int half = 1; half < size; half <<= 1) {
+            implementation.butterflies(re, im, size, half, cos, sin);
+        }
+        return re;
+    }
+}
@@ -0,0 +1,116 @@
+package bench;
+
+import math.Kernels;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the kernels chosen at startup give bit for bit the results of the scalar ones.
+ * Run with --add-modules jdk.incubator.vector, otherwise both are the scalar implementation.
+ */
+public class KernelCheck {
+
+    /**
+     * Compares every kernel on random data of many lengths, including samples out of [-1, 1] for the
+     * encoding, which must saturate. Exits with status 1 at the first difference.
+     * @param args (Empty)
+     */
+    public static void main(String[] args) {
+        Kernels kernels = Kernels.get();
+        Kernels scalar = Kernels.scalar();
+        System.out.println("Checking " + kernels.getName() + " against " + scalar.getName());
+
+        Random random = new Random(7);
+        for (int count = 0; count <= 1100; count += count < 70 ? 1 : 97) {
+            byte[] bytes = new byte[2 * count];
+            random.nextBytes(bytes);
+            double[] x = new double[count];
+            double[] y = new double[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = random.nextDouble() * 3 - 1.5;
+                y[i] = random.nextGaussian();
+            }
+
+            double[] expected = new double[count];
+            double[] actual = new double[count];
+            scalar.decodePCM16BE(bytes, expected, count);
+            kernels.decodePCM16BE(bytes, actual, count);
+            check("decodePCM16BE", count, Arrays.equals(expected, actual));
+
+            scalar.decodePCM16LE(bytes, expected, count);
+            kernels.decodePCM16LE(bytes, actual, count);
+            check("decodePCM16LE", count, Arrays.equals(expected, actual));
+
+            byte[] expectedBytes = new byte[2 * count];
+            byte[] actualBytes = new byte[2 * count];
+            scalar.encodePCM16BE(x, expectedBytes, count);
+            kernels.encodePCM16BE(x, actualBytes, count);
+            check("encodePCM16BE", count, Arrays.equals(expectedBytes, actualBytes));
+
+            scalar.encodePCM16LE(x, expectedBytes, count);
+            kernels.encodePCM16LE(x, actualBytes, count);
+            check("encodePCM16LE", count, Arrays.equals(expectedBytes, actualBytes));
+
+            check("sumOfSquares", count, Double.doubleToLongBits(scalar.sumOfSquares(x, count))
+                    == Double.doubleToLongBits(kernels.sumOfSquares(x, count)));
+
+            expected = x.clone();
+            actual = x.clone();
+            scalar.scale(expected, count, 0.3);
+            kernels.scale(actual, count, 0.3);
+            check("scale", count, Arrays.equals(expected, actual));
+
+            expected = x.clone();
+            actual = x.clone();
+            scalar.mix(expected, 0, 0.7, y, 0, -0.4, expected, 0, count);
+            kernels.mix(actual, 0, 0.7, y, 0, -0.4, actual, 0, count);
+            check("mix", count, Arrays.equals(expected, actual));
+
+            double[] expectedIm = y.clone();
+            double[] actualIm = y.clone();
+            expected = x.clone();
+            actual = x.clone();
+            scalar.multiplyAdd(x, y, 0, y, x, 0, expected, expectedIm, count);
+            kernels.multiplyAdd(x, y, 0, y, x, 0, actual, actualIm, count);
+            check("multiplyAdd", count, Arrays.equals(expected, actual) && Arrays.equals(expectedIm, actualIm));
+        }
+
+        // Out of range samples saturate, as loud as possible and with their own sign
+        byte[] saturated = new byte[4];
+        kernels.encodePCM16BE(new double[]{1.5, -4}, saturated, 2);
+        check("encodePCM16BE saturation", 2, Arrays.equals(saturated, new byte[]{0x7F, (byte) 0xFF, (byte) 0x80, 0x01}));
+        kernels.encodePCM16LE(new double[]{1.5, -4}, saturated, 2);
+        check("encodePCM16LE saturation", 2, Arrays.equals(saturated, new byte[]{(byte) 0xFF, 0x7F, 0x01, (byte) 0x80}));
+
+        // Every stage of FFTs up to 4096 points, the twiddles need not be exact for this comparison
+        for (int N = 2; N <= 4096; N *= 2) {
+            double[] cos = new double[N - 1];
+            double[] sin = new double[N - 1];
+            for (int k = 0; k < N - 1; k++) {
+                cos[k] = random.nextDouble();
+                sin[k] = random.nextDouble();
+            }
+            double[] expectedRe = new double[N], expectedIm = new double[N];
+            for (int i = 0; i < N; i++) {
+                expectedRe[i] = random.nextGaussian();
+                expectedIm[i] = random.nextGaussian();
+            }
+            double[] actualRe = expectedRe.clone(), actualIm = expectedIm.clone();
+            for (int half = 1; half < N; half <<= 1) {
+                scalar.butterflies(expectedRe, expectedIm, N, half, cos, sin);
+                kernels.butterflies(actualRe, actualIm, N, half, cos, sin);
+            }
+            check("butterflies", N, Arrays.equals(expectedRe, actualRe) && Arrays.equals(expectedIm, actualIm));
+        }
+
+        System.out.println("OK");
+    }
+
+    private static void check(String kernel, int count, boolean identical) {
+        if (!identical) {
+            System.out.println("FAILED: " + kernel + " differs for " + count + " values");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import audio.AudioSignal;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of the per-frame PCM work done by AudioSignal on the audio thread. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCMBenchmark {
+    @Param({"256", "1024", "4096"})
+    public int frameSize;
+
+    private AudioSignal audioSignal;
+    private FakeTargetDataLine audioInput;
+
+    @Setup
+    public void setup() {
+        audioSignal = new AudioSignal(frameSize);
+        audioInput = FakeTargetDataLine.sine(44000);
+        audioInput.start();
+        audioSignal.recordFrom(audioInput);
+    }
+
+    /** Sample sizes given to convertDoublesToBytes. */
+    @State(Scope.Thread)
+    public static class Encoding {
+        @Param({"8", "16"})
+        public int sampleSizeInBits;
+    }
+
+    /** 16 bits big endian decoding and level computation. */
+    @Benchmark
+    public double recordFrom() {
+        audioSignal.recordFrom(audioInput);
+        return audioSignal.getdBlevel();
+    }
+
+    @Benchmark
+    public byte[] convertDoublesToBytes(Encoding encoding) {
+        return audioSignal.convertDoublesToBytes(audioSignal.getSampleBuffer(), encoding.sampleSizeInBits);
+    }
+
+    @Benchmark
+    public double levelIndB() {
+        return AudioSignal.levelIndB(audioSignal.getSampleBuffer());
+    }
+}
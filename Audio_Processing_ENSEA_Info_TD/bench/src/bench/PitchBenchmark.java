@@ -0,0 +1,69 @@
+package bench;
+
+import audio.PitchDetector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of one hop of the PitchDetector at 44.1 kHz with a 5 ms hop (220 samples): one analysis of
+ * the whole window per call. To keep up, a hop must take well under 5000 us. timeDomain() computes
+ * the same autocorrelation directly, in O(N^2), for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PitchBenchmark {
+    private static final float SAMPLE_RATE = 44100;
+    private static final int HOP = 220;
+
+    @Param({"1024", "2048", "4096"})
+    public int windowSize;
+
+    private PitchDetector detector;
+    private double[] hop;
+    private double[] window;
+    private double[] correlation;
+    private long position;
+
+    @Setup
+    public void setup() {
+        detector = new PitchDetector(windowSize, HOP, SAMPLE_RATE);
+        hop = new double[HOP];
+        window = new double[windowSize];
+        correlation = new double[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            window[i] = Math.sin(2 * Math.PI * 196 * i / SAMPLE_RATE);
+        }
+        // Fill the window once
+        for (int i = 0; i < windowSize / HOP + 1; i++) {
+            hopOfDetector();
+        }
+    }
+
+    @Benchmark
+    public PitchDetector hopOfDetector() {
+        // A G3 with its second harmonic, to give the peak picking some work
+        for (int i = 0; i < HOP; i++, position++) {
+            double t = position / SAMPLE_RATE;
+            hop[i] = 0.6 * Math.sin(2 * Math.PI * 196 * t) + 0.3 * Math.sin(2 * Math.PI * 392 * t);
+        }
+        detector.feed(hop, HOP);
+        return detector;
+    }
+
+    @Benchmark
+    public double[] timeDomain() {
+        for (int lag = 0; lag < windowSize; lag++) {
+            double sum = 0;
+            for (int i = 0; i + lag < windowSize; i++) {
+                sum += window[i] * window[i + lag];
+            }
+            correlation[lag] = sum;
+        }
+        return correlation;
+    }
+}
@@ -0,0 +1,140 @@
+package bench;
+
+import audio.AudioProcessor;
+import audio.AudioSignal;
+import audio.FloatAudioSignal;
+import audio.FrameExchange;
+import audio.STFTAnalyzer;
+import math.FFT;
+import math.FloatFFT;
+import math.Precision;
+import math.Window;
+
+import java.util.Random;
+
+/** Checks that the single precision path gives the same results as the double one, within float accuracy. */
+public class PrecisionCheck {
+
+    /**
+     * Compares the FFTs of both paths on random signals, then the decoded samples, levels, STFT spectra
+     * and AudioProcessor frames on a 1000Hz sine wave.
+     * Exits with status 1 if any difference is above float accuracy.
+     * @param args (Empty)
+     */
+    public static void main(String[] args) {
+        boolean failed = false;
+
+        // FFT on random signals
+        failed |= checkFFT() > 1e-5;
+
+        for (int frameSize : new int[]{256, 1024, 4096}) {
+            AudioSignal audioSignal = new AudioSignal(frameSize);
+            FloatAudioSignal floatSignal = new FloatAudioSignal(frameSize);
+            audioSignal.recordFrom(FakeTargetDataLine.sine(44000));
+            floatSignal.recordFrom(FakeTargetDataLine.sine(44000));
+
+            double sampleError = 0;
+            for (int i = 0; i < frameSize; i++) {
+                sampleError = Math.max(sampleError, Math.abs(audioSignal.getSample(i) - floatSignal.getSampleBuffer()[i]));
+            }
+            double levelError = Math.abs(audioSignal.getdBlevel() - floatSignal.getdBlevel());
+            System.out.printf("frameSize=%d: sample error %.2e, level error %.2e dB%n", frameSize, sampleError, levelError);
+            failed |= sampleError > 1e-7 || levelError > 1e-5;
+        }
+
+        for (int fftSize : new int[]{512, 2048, 8192}) {
+            STFTAnalyzer doubleAnalyzer = new STFTAnalyzer(fftSize, fftSize / 4, Window.HANN, 44000);
+            STFTAnalyzer floatAnalyzer = new STFTAnalyzer(fftSize, fftSize / 4, Window.HANN, 44000, Precision.FLOAT);
+            AudioSignal audioSignal = new AudioSignal(fftSize);
+            audioSignal.recordFrom(FakeTargetDataLine.sine(44000));
+            doubleAnalyzer.feed(audioSignal.getSampleBuffer(), fftSize);
+            floatAnalyzer.feed(audioSignal.getSampleBuffer(), fftSize);
+
+            double[] expected = latestSpectrum(doubleAnalyzer);
+            double[] actual = latestSpectrum(floatAnalyzer);
+            double error = 0, peak = 0;
+            for (int k = 0; k < expected.length; k++) {
+                error = Math.max(error, Math.abs(expected[k] - actual[k]));
+                peak = Math.max(peak, expected[k]);
+            }
+            System.out.printf("fftSize=%d: STFT error %.2e of the peak%n", fftSize, error / peak);
+            failed |= error / peak > 1e-5;
+        }
+
+        for (int frameSize : new int[]{256, 1024}) {
+            FakeTargetDataLine doubleInput = FakeTargetDataLine.sine(44000);
+            FakeTargetDataLine floatInput = FakeTargetDataLine.sine(44000);
+            AudioProcessor doubleProcessor = new AudioProcessor(doubleInput,
+                    new FakeSourceDataLine(doubleInput.getFormat()), frameSize);
+            AudioProcessor floatProcessor = new AudioProcessor(floatInput,
+                    new FakeSourceDataLine(floatInput.getFormat()), frameSize, Precision.FLOAT);
+            doubleProcessor.processFrame();
+            floatProcessor.processFrame();
+
+            double[] expected = doubleProcessor.getOutputSignal().getSampleBuffer();
+            double[] actual = floatProcessor.getOutputSignal().getSampleBuffer();
+            double error = 0;
+            for (int i = 0; i < frameSize; i++) {
+                error = Math.max(error, Math.abs(expected[i] - actual[i]));
+            }
+            System.out.printf("frameSize=%d: AudioProcessor output error %.2e%n", frameSize, error);
+            failed |= error > 1e-7;
+        }
+
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Compares the float transforms with the double ones on random signals, and prints the largest
+     * error relative to the largest bin.
+     * @return the largest error of all the sizes
+     */
+    private static double checkFFT() {
+        Random random = new Random(1);
+        double worst = 0;
+        for (int N : new int[]{2, 8, 64, 480, 1024, 1500, 4096, 65536}) {
+            double[] x = new double[N];
+            float[] xf = new float[N];
+            for (int i = 0; i < N; i++) {
+                xf[i] = (float) (random.nextDouble() * 2 - 1);
+                x[i] = xf[i]; // same input for both, only the transform differs
+            }
+
+            // Complex FFT of the signal
+            double[] re = x.clone(), im = new double[N];
+            float[] fre = xf.clone(), fim = new float[N];
+            FFT.fft(re, im);
+            FloatFFT.fft(fre, fim);
+            double complexError = relativeError(re, im, fre, fim, N);
+
+            // Real FFT of the signal
+            double[] hre = new double[N / 2 + 1], him = new double[N / 2 + 1];
+            float[] fhre = new float[N / 2 + 1], fhim = new float[N / 2 + 1];
+            FFT.realFFT(x, hre, him);
+            FloatFFT.realFFT(xf, fhre, fhim);
+            double realError = relativeError(hre, him, fhre, fhim, N / 2 + 1);
+
+            System.out.printf("N=%d: FFT error %.2e (complex), %.2e (real) of the peak%n", N, complexError, realError);
+            worst = Math.max(worst, Math.max(complexError, realError));
+        }
+        return worst;
+    }
+
+    private static double relativeError(double[] re, double[] im, float[] fre, float[] fim, int count) {
+        double error = 0;
+        double peak = 0;
+        for (int k = 0; k < count; k++) {
+            error = Math.max(error, Math.hypot(re[k] - fre[k], im[k] - fim[k]));
+            peak = Math.max(peak, Math.hypot(re[k], im[k]));
+        }
+        return error / peak;
+    }
+
+    private static double[] latestSpectrum(STFTAnalyzer analyzer) {
+        FrameExchange.Frame frame = new FrameExchange.Frame();
+        analyzer.getSpectra().readLatest(frame);
+        double[] magnitudes = new double[frame.getLength()];
+        System.arraycopy(frame.getSamples(), 0, magnitudes, 0, magnitudes.length);
+        return magnitudes;
+    }
+}
@@ -0,0 +1,47 @@
+package audio;
+
+/**
+ * An audio effect that transforms blocks of samples in place. Effects are run by an EffectChain
+ * on the audio thread, so process() must not allocate nor block: every buffer an effect needs is
+ * allocated in prepare(), which is called beforehand from another thread.
+ * Each channel of a signal is processed separately. Effects that keep a state from one frame to the
+ * next override the versions taking a number of channels and a channel index, to keep one state per
+ * channel; the channels of a frame may then be processed by several threads at once.
+ */
+public interface AudioEffect {
+
+    /**
+     * Allocates the state of the effect. Called before the first process(), and again when the
+     * audio configuration changes.
+     * @param maxFrameSize the largest number of samples process() will be given
+     * @param sampleRate the sample rate of the processed signal
+     */
+    default void prepare(int maxFrameSize, float sampleRate) {
+    }
+
+    /**
+     * Same as prepare(int, float) for a signal of several channels.
+     * @param channels the number of channels, process() is given channel indices from 0 to channels-1
+     */
+    default void prepare(int maxFrameSize, float sampleRate, int channels) {
+        prepare(maxFrameSize, sampleRate);
+    }
+
+    /**
+     * Processes the first length values of samples in place.
+     */
+    void process(double[] samples, int length);
+
+    /**
+     * Processes the first length values of one channel in place. Calls for different channels may
+     * run at the same time on different threads.
+     */
+    default void process(double[] samples, int length, int channel) {
+        process(samples, length);
+    }
+
+    /** @return a short name displayed with the stage timings */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+}
@@ -1,6 +1,7 @@
 package audio;
 
 import javax.sound.sampled.*;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -44,14 +45,22 @@ public class AudioIO {
      * @see .AudioSystem.getMixerInfo() which provides a list of all mixers on your system.
      */
     public static TargetDataLine obtainAudioInput(String mixerName, int sampleRate) {
+        return obtainAudioInput(mixerName, sampleRate, 1);
+    }
+
+    /**
+     * Same as obtainAudioInput(String, int) for a device recording several channels.
+     * @param channels the number of channels, 1 for mono, 2 for stereo...
+     */
+    public static TargetDataLine obtainAudioInput(String mixerName, int sampleRate, int channels) {
         // Create the Object that will be returned, return null if failed.
         TargetDataLine targetDataLine;
 
-        // Audio format with sampleRate as sample rate and 16 Bits format
-        AudioFormat audioFormat = new AudioFormat((float) sampleRate, 16, 1, true, true);
-
         Mixer.Info mixerInfo = getMixerInfo(mixerName);
 
+        // The format the device records natively, the line keeps it as its default format
+        AudioFormat audioFormat = negotiateFormat(mixerInfo, TargetDataLine.class, sampleRate, channels);
+
         try {
             targetDataLine = AudioSystem.getTargetDataLine(audioFormat, mixerInfo);
         } catch (LineUnavailableException e) {
@@ -65,14 +74,22 @@ public class AudioIO {
      * Return a line that's appropriate for playing sound to a loudspeaker.
      */
     public static SourceDataLine obtainAudioOutput(String mixerName, int sampleRate) {
+        return obtainAudioOutput(mixerName, sampleRate, 1);
+    }
+
+    /**
+     * Same as obtainAudioOutput(String, int) for a device playing several channels.
+     * @param channels the number of channels, 1 for mono, 2 for stereo...
+     */
+    public static SourceDataLine obtainAudioOutput(String mixerName, int sampleRate, int channels) {
         // Create the Object that will be returned, return null if failed.
         SourceDataLine sourceDataLine;
 
-        // Audio format with sampleRate as sample rate and 16 Bits format
-        AudioFormat audioFormat = new AudioFormat((float) sampleRate, 16, 1, true, true);
-
         Mixer.Info mixerInfo = getMixerInfo(mixerName);
 
+        // The format the device plays natively, the line keeps it as its default format
+        AudioFormat audioFormat = negotiateFormat(mixerInfo, SourceDataLine.class, sampleRate, channels);
+
         try {
             sourceDataLine = AudioSystem.getSourceDataLine(audioFormat, mixerInfo);
         } catch (LineUnavailableException e) {
@@ -82,6 +99,58 @@ public class AudioIO {
         return sourceDataLine;
     }
 
+    /**
+     * Chooses the format in which a line of the mixer is opened, among the formats the mixer
+     * declares for this kind of line and that a PCMCodec reads without conversion: the requested
+     * rate if the mixer has it, then the largest sample size, then the byte order of the platform.
+     * A rate or a number of channels left unspecified by the mixer means that any value is accepted.
+     * Lines opened in such a format are not converted by Java Sound, and the samples are decoded
+     * in a single step. The rate may differ from the requested one if the mixer does not have it,
+     * the caller must then process at the rate of the returned format.
+     * @param lineClass TargetDataLine.class to record, SourceDataLine.class to play
+     * @return the chosen format, or signed 16 bits big endian when the mixer declares no usable format
+     */
+    public static AudioFormat negotiateFormat(Mixer.Info mixerInfo, Class<? extends DataLine> lineClass,
+                                              float sampleRate, int channels) {
+        Mixer mixer = AudioSystem.getMixer(mixerInfo);
+        Line.Info[] lineInfos = lineClass == SourceDataLine.class ? mixer.getSourceLineInfo() : mixer.getTargetLineInfo();
+        return negotiateFormat(lineInfos, lineClass, sampleRate, channels);
+    }
+
+    /** Chooses among the formats of the given lines, see negotiateFormat(Mixer.Info, Class, float, int). */
+    static AudioFormat negotiateFormat(Line.Info[] lineInfos, Class<? extends DataLine> lineClass,
+                                       float sampleRate, int channels) {
+        boolean isPlatformBigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+        AudioFormat best = null;
+        int bestScore = -1;
+        for (Line.Info lineInfo : lineInfos) {
+            if (!(lineInfo instanceof DataLine.Info) || !lineClass.isAssignableFrom(lineInfo.getLineClass())) {
+                continue;
+            }
+            for (AudioFormat format : ((DataLine.Info) lineInfo).getFormats()) {
+                if (!PCMCodec.isSupported(format)
+                        || (format.getChannels() != AudioSystem.NOT_SPECIFIED && format.getChannels() != channels)) {
+                    continue;
+                }
+                boolean isRateSpecified = format.getSampleRate() != AudioSystem.NOT_SPECIFIED;
+                int score = (!isRateSpecified || format.getSampleRate() == sampleRate ? 1000 : 0)
+                        + 10 * format.getSampleSizeInBits()
+                        + (format.getSampleSizeInBits() == 8 || format.isBigEndian() == isPlatformBigEndian ? 1 : 0);
+                if (score > bestScore) {
+                    float rate = isRateSpecified ? format.getSampleRate() : sampleRate;
+                    // The frame size the mixer declares, computed only when it leaves it to the number of channels
+                    int frameSize = format.getFrameSize() != AudioSystem.NOT_SPECIFIED && format.getChannels() == channels
+                            ? format.getFrameSize() : channels * format.getSampleSizeInBits() / 8;
+                    best = new AudioFormat(format.getEncoding(), rate, format.getSampleSizeInBits(), channels,
+                            frameSize, rate, format.isBigEndian());
+                    bestScore = score;
+                }
+            }
+        }
+        return best != null ? best : new AudioFormat(sampleRate, 16, channels, true, true);
+    }
+
     public static void main(String[] args) {
 
         int samplingRate = 8000;
@@ -0,0 +1,253 @@
+package audio;
+
+import jdk.jfr.FlightRecorder;
+
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Measures the real-time behaviour of the audio loop: the time spent reading, processing and
+ * writing each frame, the frames whose processing took longer than the frame itself, the overruns
+ * of the input line and underruns of the output line, how full both line buffers are, and the
+ * resulting round-trip latency. Recording allocates nothing; {@link #snapshot()} gives a copy for
+ * the UI, and the same figures are sent to Java Flight Recorder as the audio.Metrics event.
+ * Each kind of measure has a single writer: the audio thread, or with an AudioPipeline the thread
+ * of the corresponding stage.
+ */
+public class AudioMetrics {
+    private final LatencyHistogram readNanos = new LatencyHistogram();
+    private final LatencyHistogram processNanos = new LatencyHistogram();
+    private final LatencyHistogram writeNanos = new LatencyHistogram();
+
+    private volatile long frameNanos; // duration of a frame at the sample rate, the processing deadline
+    private volatile float sampleRate;
+    private volatile int frameSize;
+
+    private volatile long frames, lateFrames, overruns, underruns;
+    private volatile long writes; // the output buffer is empty before the first write, that is no underrun
+    private volatile int inputQueued, outputQueued; // sample frames waiting in the line buffers
+    private volatile float inputFill, outputFill; // fraction of the line buffers in use
+
+    private Runnable flightRecorderHook; // emits the JFR event, null when not registered
+
+    /** Sets the frame duration, against which processing times are compared. */
+    public void setFrameFormat(int frameSize, float sampleRate) {
+        this.frameSize = frameSize;
+        this.sampleRate = sampleRate;
+        this.frameNanos = (long) (frameSize * 1e9 / sampleRate);
+    }
+
+    /** Samples the input line before a frame is read. An input buffer full means samples are lost. */
+    void beforeRead(TargetDataLine audioInput) {
+        int available = audioInput.available();
+        int bufferSize = audioInput.getBufferSize();
+        if (bufferSize > 0) {
+            if (available >= bufferSize) overruns++;
+            inputFill = (float) available / bufferSize;
+        }
+        inputQueued = available / frameBytesOf(audioInput);
+    }
+
+    /** Samples the output line before a frame is written. An output buffer empty means the device ran dry. */
+    void beforeWrite(SourceDataLine audioOutput) {
+        int available = audioOutput.available();
+        int bufferSize = audioOutput.getBufferSize();
+        if (bufferSize > 0) {
+            if (available >= bufferSize && writes > 0) underruns++;
+            outputFill = 1 - (float) available / bufferSize;
+            outputQueued = (bufferSize - available) / frameBytesOf(audioOutput);
+        }
+        writes++;
+    }
+
+    private static int frameBytesOf(DataLine line) {
+        return Math.max(1, line.getFormat().getFrameSize());
+    }
+
+    void recordRead(long nanos) {
+        readNanos.record(nanos);
+    }
+
+    /** Records the processing time of a frame, which is late if it took longer than the frame lasts. */
+    void recordProcess(long nanos) {
+        processNanos.record(nanos);
+        if (nanos > frameNanos) lateFrames++;
+        frames++;
+    }
+
+    void recordWrite(long nanos) {
+        writeNanos.record(nanos);
+    }
+
+    /** Called when the output line has been opened again, its buffer is then empty without an underrun. */
+    void lineReopened() {
+        writes = 0;
+    }
+
+    long getXruns() {
+        return overruns + underruns;
+    }
+
+    long getLateFrames() {
+        return lateFrames;
+    }
+
+    long getFrameNanos() {
+        return frameNanos;
+    }
+
+    /**
+     * @return the time a sample spends between the microphone and the loudspeaker: the samples
+     * waiting in the input buffer, the frame being processed, and the samples waiting in the output buffer
+     */
+    public double getLatencySeconds() {
+        float sampleRate = this.sampleRate;
+        return sampleRate > 0 ? (inputQueued + frameSize + outputQueued) / sampleRate : 0;
+    }
+
+    /** @return a copy of every measure, to be compared with a later one with since() */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Makes the metrics available to Java Flight Recorder, as a periodic audio.Metrics event which
+     * costs nothing unless a recording enables it. Called when the audio thread starts.
+     */
+    public synchronized void registerFlightRecorderEvent() {
+        if (flightRecorderHook == null) {
+            flightRecorderHook = new MetricsEvent.Hook(this);
+            FlightRecorder.addPeriodicEvent(MetricsEvent.class, flightRecorderHook);
+        }
+    }
+
+    /** Stops sending the audio.Metrics event, called when the audio thread stops. */
+    public synchronized void unregisterFlightRecorderEvent() {
+        if (flightRecorderHook != null) {
+            FlightRecorder.removePeriodicEvent(flightRecorderHook);
+            flightRecorderHook = null;
+        }
+    }
+
+    /** The metrics at one point in time. */
+    public static final class Snapshot {
+        private final long timeNanos;
+        private final long frames, lateFrames, overruns, underruns;
+        private final long frameNanos;
+        private final float inputFill, outputFill;
+        private final double latencySeconds;
+        private final LatencyHistogram.Snapshot read, process, write;
+
+        private Snapshot(AudioMetrics metrics) {
+            timeNanos = System.nanoTime();
+            frames = metrics.frames;
+            lateFrames = metrics.lateFrames;
+            overruns = metrics.overruns;
+            underruns = metrics.underruns;
+            frameNanos = metrics.frameNanos;
+            inputFill = metrics.inputFill;
+            outputFill = metrics.outputFill;
+            latencySeconds = metrics.getLatencySeconds();
+            read = metrics.readNanos.snapshot();
+            process = metrics.processNanos.snapshot();
+            write = metrics.writeNanos.snapshot();
+        }
+
+        private Snapshot(Snapshot later, Snapshot earlier) {
+            timeNanos = later.timeNanos - earlier.timeNanos;
+            frames = later.frames - earlier.frames;
+            lateFrames = later.lateFrames - earlier.lateFrames;
+            overruns = later.overruns - earlier.overruns;
+            underruns = later.underruns - earlier.underruns;
+            frameNanos = later.frameNanos;
+            inputFill = later.inputFill;
+            outputFill = later.outputFill;
+            latencySeconds = later.latencySeconds;
+            read = later.read.since(earlier.read);
+            process = later.process.since(earlier.process);
+            write = later.write.since(earlier.write);
+        }
+
+        /**
+         * @return the counts and distributions of what happened between an earlier snapshot and
+         * this one; the fill levels and the latency stay those of this snapshot
+         */
+        public Snapshot since(Snapshot earlier) {
+            return new Snapshot(this, earlier);
+        }
+
+        /** @return the System.nanoTime() of the snapshot, or the time between the two snapshots for a difference */
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        /** @return the number of frames processed */
+        public long getFrames() {
+            return frames;
+        }
+
+        /** @return the number of frames whose processing took longer than the frame duration */
+        public long getLateFrames() {
+            return lateFrames;
+        }
+
+        /** @return the number of frames read while the input buffer was full */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /** @return the number of frames written while the output buffer was empty */
+        public long getUnderruns() {
+            return underruns;
+        }
+
+        /** @return the duration of a frame, the deadline of its processing */
+        public long getFrameNanos() {
+            return frameNanos;
+        }
+
+        /** @return the fraction of the input buffer in use before the last read, from 0 to 1 */
+        public float getInputFill() {
+            return inputFill;
+        }
+
+        /** @return the fraction of the output buffer in use before the last write, from 0 to 1 */
+        public float getOutputFill() {
+            return outputFill;
+        }
+
+        public double getLatencySeconds() {
+            return latencySeconds;
+        }
+
+        /** @return the time spent in the read of the input line, waiting for the samples included */
+        public LatencyHistogram.Snapshot getRead() {
+            return read;
+        }
+
+        /** @return the time spent computing the output frame from the input frame */
+        public LatencyHistogram.Snapshot getProcess() {
+            return process;
+        }
+
+        /** @return the time spent in the write to the output line, waiting for room included */
+        public LatencyHistogram.Snapshot getWrite() {
+            return write;
+        }
+
+        /** @return a one line summary, e.g. for a status bar */
+        public String summary() {
+            return String.format("process p50 %.2f ms, p99 %.2f ms, max %.2f ms of %.1f ms | late %d | "
+                            + "overruns %d, underruns %d | buffers in %.0f%%, out %.0f%% | latency %.0f ms",
+                    process.getPercentileNanos(50) / 1e6, process.getPercentileNanos(99) / 1e6,
+                    process.getMaxNanos() / 1e6, frameNanos / 1e6, lateFrames, overruns, underruns,
+                    100 * inputFill, 100 * outputFill, 1000 * latencySeconds);
+        }
+
+        @Override
+        public String toString() {
+            return summary();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package audio;
+
+import javax.sound.sampled.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An alternative to running an AudioProcessor as a single Runnable. Capture, processing and
+ * playback each get their own thread, connected by two FrameRing queues of queueDepth frames,
+ * so that a late processing or a blocking write does not delay the next read of the microphone.
+ * The output line is primed with queueDepth frames of silence: the latency grows by that fixed
+ * amount, and that is the jitter the pipeline can absorb.
+ * The frames keep the size and channels the AudioProcessor has when the pipeline is built: while it
+ * runs, the processor cannot be reconfigured nor started, and it must not have a FrameSizeController.
+ * To change the lines or the frame size, terminate the pipeline and build a new one.
+ */
+public class AudioPipeline {
+    private static final long WAIT_NANOS = 100_000; // pause when a queue is full or empty
+
+    private final AudioProcessor audioProcessor;
+    private final FrameRing captured, processed;
+    private final FloatAudioSignal floatFrame; // decodes the captured frames in single precision, null otherwise
+    private final int queueDepth;
+    private final int frameSize, channels; // of the frames in the queues
+    private Thread captureThread, processThread, playbackThread;
+    private volatile boolean isRunning;
+
+    /**
+     * @param audioProcessor gives the lines, the signals shown by the UI, the processing and its precision
+     * @param queueDepth the number of frames each queue can hold, at least 1
+     */
+    public AudioPipeline(AudioProcessor audioProcessor, int queueDepth) {
+        this.audioProcessor = audioProcessor;
+        this.queueDepth = queueDepth;
+        this.frameSize = audioProcessor.getInputSignal().getFrameSize();
+        this.channels = audioProcessor.getInputSignal().getChannelCount();
+        this.captured = new FrameRing(queueDepth, frameSize, channels);
+        this.processed = new FrameRing(queueDepth, frameSize, channels);
+        this.floatFrame = AudioProcessor.createFloatInput(audioProcessor.getPrecision(), frameSize, channels);
+    }
+
+    /** Starts the three threads. The lines of the AudioProcessor must already be open and started.
+     * Each thread records its own step in the metrics of the AudioProcessor.
+     * @throws IllegalStateException if the processor runs, has a FrameSizeController, or no longer has the
+     * frame size and channels of the pipeline */
+    public void start() {
+        AudioSignal inputSignal = audioProcessor.getInputSignal();
+        if (inputSignal.getFrameSize() != frameSize || inputSignal.getChannelCount() != channels) {
+            throw new IllegalStateException("The AudioProcessor has changed since the pipeline was built");
+        }
+        audioProcessor.attachPipeline(this);
+        isRunning = true;
+        audioProcessor.getMetrics().registerFlightRecorderEvent();
+        captureThread = new Thread(this::capture, "audio-capture");
+        processThread = new Thread(this::process, "audio-process");
+        playbackThread = new Thread(this::playback, "audio-playback");
+        playbackThread.start();
+        processThread.start();
+        captureThread.start();
+    }
+
+    /** Stops the threads and closes the lines, returns once the threads are finished. */
+    public void terminate() throws InterruptedException {
+        isRunning = false;
+        processThread.join();
+        playbackThread.join();
+        // The capture thread may be blocked in read() until the line is closed
+        audioProcessor.getAudioOutput().close();
+        audioProcessor.getAudioInput().close();
+        captureThread.join();
+        audioProcessor.getMetrics().unregisterFlightRecorderEvent();
+        audioProcessor.detachPipeline();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    private void capture() {
+        TargetDataLine audioInput = audioProcessor.getAudioInput();
+        AudioMetrics metrics = audioProcessor.getMetrics();
+        while (isRunning) {
+            AudioSignal frame = captured.claim();
+            if (frame == null) {
+                LockSupport.parkNanos(WAIT_NANOS);
+                continue;
+            }
+            metrics.beforeRead(audioInput);
+            long start = System.nanoTime();
+            if (!AudioProcessor.record(frame, floatFrame, audioInput)) break;
+            metrics.recordRead(System.nanoTime() - start);
+            captured.commit();
+        }
+    }
+
+    private void process() {
+        AudioSignal inputSignal = audioProcessor.getInputSignal();
+        AudioSignal outputSignal = audioProcessor.getOutputSignal();
+        AudioMetrics metrics = audioProcessor.getMetrics();
+        while (isRunning) {
+            AudioSignal in = captured.peek();
+            AudioSignal out = processed.claim();
+            if (in == null || out == null) {
+                LockSupport.parkNanos(WAIT_NANOS);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            inputSignal.copyFrom(in);
+            captured.release();
+            inputSignal.publish();
+
+            audioProcessor.process(inputSignal, outputSignal);
+            outputSignal.publish();
+
+            out.copyFrom(outputSignal);
+            processed.commit();
+            metrics.recordProcess(System.nanoTime() - start);
+        }
+    }
+
+    private void playback() {
+        SourceDataLine audioOutput = audioProcessor.getAudioOutput();
+        AudioMetrics metrics = audioProcessor.getMetrics();
+
+        // Prime the line with silence, as many frames as a queue holds
+        AudioSignal output = audioProcessor.getOutputSignal();
+        AudioSignal silence = new AudioSignal(output.getFrameSize(), output.getChannelCount());
+        for (int i = 0; i < queueDepth; i++) {
+            silence.playTo(audioOutput, true);
+        }
+
+        while (isRunning) {
+            AudioSignal frame = processed.peek();
+            if (frame == null) {
+                LockSupport.parkNanos(WAIT_NANOS);
+                continue;
+            }
+            metrics.beforeWrite(audioOutput);
+            long start = System.nanoTime();
+            frame.playTo(audioOutput, true);
+            metrics.recordWrite(System.nanoTime() - start);
+            processed.release();
+        }
+    }
+}
@@ -1,14 +1,35 @@
 package audio;
 
+import math.Precision;
+
 import javax.sound.sampled.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** The main audio processing class, implemented as a Runnable
- * to be run in a separated execution Thread. */
+ * to be run in a separated execution Thread. While it runs, the lines and the frame size are
+ * changed with reconfigure(), which allocates everything on the calling thread: the audio thread
+ * only swaps references between two frames. With Precision.FLOAT, a mono input is decoded and its level
+ * computed in single precision before the effects, and getPrecision() tells which analyzers to give it. */
 public class AudioProcessor implements Runnable {
     private AudioSignal inputSignal, outputSignal;
+    private final Precision precision; // of the capture and of the analyses, the effects are in double
+    private FloatAudioSignal floatInput; // decodes a mono input in single precision, null otherwise
     private TargetDataLine audioInput;
     private SourceDataLine audioOutput;
-    private boolean isThreadRunning; // makes it possible to "terminate" thread
+    private final EffectChain effectChain; // effects applied between input and output
+    private volatile STFTAnalyzer analyzer; // optional analysis of the input, null if none
+    private volatile PitchDetector pitchDetector; // optional pitch tracking of the input, null if none
+    private final AudioMetrics metrics = new AudioMetrics(); // timings and xruns of the audio loop
+    private FrameSizeController frameSizeController; // adaptive frame size, null if the size is fixed
+    private volatile boolean isThreadRunning; // makes it possible to "terminate" thread
+    private volatile Thread audioThread; // the thread running the loop, null if none
+    private volatile AudioPipeline pipeline; // running the processing instead of the loop, null if none
+
+    // Reconfiguration waiting for the next frame boundary, and the fade-in that follows a switch
+    private final AtomicReference<Reconfiguration> pendingReconfiguration = new AtomicReference<>();
+    private int fadeInPosition, fadeInLength;
 
     /**
      * Creates an AudioProcessor that takes input from the given TargetDataLine, and plays back
@@ -17,12 +38,27 @@ public class AudioProcessor implements Runnable {
      * @param audioInput TargetDataLine (Microphone line)
      * @param audioOutput OuputDataLine (Speaker line)
      * @param frameSize the size of the audio buffer. The shorter, the lower the latency.
+     * The signals have as many channels as the input line.
      */
     public AudioProcessor(TargetDataLine audioInput, SourceDataLine audioOutput, int frameSize) {
-        inputSignal = new AudioSignal(frameSize);
-        outputSignal = new AudioSignal(inputSignal);
+        this(audioInput, audioOutput, frameSize, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates an AudioProcessor whose capture and analyses use the given precision.
+     * @param precision with FLOAT, a mono input goes through a FloatAudioSignal; the effects are in double either way
+     */
+    public AudioProcessor(TargetDataLine audioInput, SourceDataLine audioOutput, int frameSize, Precision precision) {
+        this.precision = precision;
+        int channels = channelsOf(audioInput);
+        floatInput = createFloatInput(precision, frameSize, channels);
+        inputSignal = new AudioSignal(frameSize, channels);
+        outputSignal = new AudioSignal(frameSize, channels);
         this.audioInput = audioInput;
         this.audioOutput = audioOutput;
+        effectChain = new EffectChain(frameSize, sampleRateOf(audioInput));
+        effectChain.prepare(frameSize, sampleRateOf(audioInput), channels);
+        metrics.setFrameFormat(frameSize, sampleRateOf(audioInput));
     }
 
 
@@ -34,23 +70,324 @@ public class AudioProcessor implements Runnable {
     @Override
     public void run() {
         isThreadRunning = true;
-        while (isThreadRunning) {
-            inputSignal.recordFrom(audioInput);
-            // your job: copy inputSignal to outputSignal with some audio effect
+        audioThread = Thread.currentThread();
+        loop();
+    }
+
+    /** Starts the audio thread. The lines must already be open and started. */
+    public synchronized void start() {
+        if (audioThread != null) {
+            throw new IllegalStateException("The audio thread is already running");
+        }
+        if (pipeline != null) {
+            throw new IllegalStateException("An AudioPipeline is running this processor");
+        }
+        isThreadRunning = true; // before the thread starts, so that a stop right after is not missed
+        audioThread = new Thread(this::loop, "audio");
+        audioThread.start();
+    }
+
+    /** @return whether the audio thread runs */
+    public boolean isRunning() {
+        return audioThread != null;
+    }
+
+    private void loop() {
+        metrics.registerFlightRecorderEvent();
+        try {
+            while (isThreadRunning) {
+                processFrame();
+            }
+        } finally {
+            metrics.unregisterFlightRecorderEvent();
+            // Also when a frame throws, so that isRunning() is false and start() works again. Not under the
+            // lock: terminateAudioThread() holds it while it waits for this thread. No other thread can be
+            // started before this field is cleared, so the test cannot miss one.
+            isThreadRunning = false;
+            if (audioThread == Thread.currentThread()) {
+                audioThread = null;
+            }
+        }
+    }
+
+    /**
+     * One iteration of the audio thread loop: records a frame, processes it and plays it.
+     * Nothing is allocated here once the buffers have been sized for the current lines.
+     * Each step is timed in the metrics.
+     */
+    public void processFrame() {
+        Reconfiguration next = pendingReconfiguration.get();
+        boolean isMuted = effectChain.isSuspended() && fadeInLength > 0;
+
+        metrics.beforeRead(audioInput);
+        long start = System.nanoTime();
+        record(inputSignal, floatInput, audioInput);
+        long read = System.nanoTime();
+        metrics.recordRead(read - start);
+        inputSignal.publish();
+
+        process(inputSignal, outputSignal);
+        outputSignal.publish();
+        long processed = System.nanoTime();
+        metrics.recordProcess(processed - read);
+
+        // The last frame before a switch fades out then stays silent, the first ones after fade in
+        if (next != null && next.crossfadeSamples > 0) {
+            fade(outputSignal, 0, Math.min(next.crossfadeSamples, outputSignal.getFrameSize()), false);
+        } else if (isMuted) {
+            // Until the effects are prepared for the new configuration, the fade-in starts after
+            fade(outputSignal, 0, 0, false);
+        } else if (fadeInPosition < fadeInLength) {
+            fade(outputSignal, fadeInPosition, fadeInLength, true);
+            fadeInPosition += outputSignal.getFrameSize();
+        }
+
+        metrics.beforeWrite(audioOutput);
+        outputSignal.playTo(audioOutput, true);
+        long written = System.nanoTime();
+        metrics.recordWrite(written - processed);
+
+        if (next != null) {
+            pendingReconfiguration.set(null);
+            apply(next);
+            return;
+        }
+        FrameSizeController controller = frameSizeController;
+        if (controller != null && controller.update(metrics, processed - read, written)) {
+            applyFrameSize(controller);
+        }
+    }
+
+    /**
+     * Records a frame of the input into a signal, through floatSignal when it is not null.
+     * Shared by processFrame() and by AudioPipeline.
+     * @return false if at end of stream
+     */
+    static boolean record(AudioSignal signal, FloatAudioSignal floatSignal, TargetDataLine audioInput) {
+        if (floatSignal == null) {
+            return signal.recordFrom(audioInput);
+        }
+        if (!floatSignal.recordFrom(audioInput)) return false;
+        signal.widenFrom(floatSignal);
+        return true;
+    }
+
+    /** @return the signal decoding the input in single precision, null in double precision or with several channels */
+    static FloatAudioSignal createFloatInput(Precision precision, int capacity, int channels) {
+        return precision == Precision.FLOAT && channels == 1 ? new FloatAudioSignal(capacity) : null;
+    }
+
+    /**
+     * Applies a gain ramp to the frame of a signal: from 0 to 1 over length samples starting at
+     * sample position of the ramp when fading in; when fading out, from 1 to 0 over the first length
+     * samples of the frame, then silence, so that a length of 0 mutes the frame.
+     */
+    private static void fade(AudioSignal signal, int position, int length, boolean isFadeIn) {
+        int frameSize = signal.getFrameSize();
+        for (int c = 0; c < signal.getChannelCount(); c++) {
+            double[] samples = signal.getChannel(c);
+            for (int i = 0; i < frameSize; i++) {
+                double gain = isFadeIn ? Math.min(1.0, (double) (position + i + 1) / length)
+                        : Math.max(0.0, 1.0 - (double) (i + 1) / Math.max(1, length));
+                samples[i] *= gain;
+            }
+        }
+    }
+
+    /**
+     * Switches to other lines, frame size or number of channels while the audio thread runs, without
+     * stopping it. The new signal buffers are allocated by the calling thread, and the audio thread
+     * takes them between two frames; the lines no longer used are then closed by another thread,
+     * after the end of the output has been played. If the thread is not running, the change is
+     * applied at once. The effects keep their state, unless the sample rate, the number of
+     * channels or a larger frame size requires preparing them again: the audio thread then skips
+     * them from the switch on, the calling thread prepares them, and the sound fades in once they are back.
+     * @param audioInput the input line, open and started, or the current one. A new line is flushed at
+     *                   the switch, what it captured before does not add to the latency
+     * @param audioOutput the output line, open and started, or the current one
+     * @param frameSize the new frame size; with a FrameSizeController, the buffers stay sized for its largest frame
+     * @param crossfadeSeconds the duration of the fade-out before the switch and of the fade-in after it, 0 for none;
+     *                         the fade-out is at most one frame, the rest of that frame is silent
+     * @throws InterruptedException if the calling thread is interrupted while the audio thread switches
+     * @throws IllegalStateException if an AudioPipeline runs the processing: stop it and start a new one instead
+     */
+    public void reconfigure(TargetDataLine audioInput, SourceDataLine audioOutput, int frameSize,
+                            double crossfadeSeconds) throws InterruptedException {
+        if (pipeline != null) {
+            throw new IllegalStateException("An AudioPipeline cannot be reconfigured while it runs, start a new one");
+        }
+        Reconfiguration next = new Reconfiguration(audioInput, audioOutput, frameSize,
+                (int) (crossfadeSeconds * sampleRateOf(audioInput)), frameSizeController, effectChain, precision);
+        TargetDataLine previousInput = this.audioInput;
+        SourceDataLine previousOutput = this.audioOutput;
+
+        synchronized (this) {
+            Thread thread = audioThread;
+            if (thread == null) {
+                apply(next);
+            } else {
+                pendingReconfiguration.set(next);
+                // Wait for the frame boundary, unless the thread has stopped in the meantime
+                while (!next.applied.await(50, TimeUnit.MILLISECONDS)) {
+                    if (!thread.isAlive() && pendingReconfiguration.compareAndSet(next, null)) {
+                        apply(next);
+                    }
+                }
+            }
+
+            // The audio thread no longer runs the effects, they can be allocated again here
+            if (next.isPreparingEffects) {
+                effectChain.prepare(next.capacity, next.sampleRate, next.channels);
+                effectChain.resume();
+            }
+        }
+
+        closeUnused(previousInput != audioInput ? previousInput : null,
+                previousOutput != audioOutput ? previousOutput : null);
+    }
+
+    /**
+     * Closes the lines no longer used by a helper thread, the output once its end has been played:
+     * a drain lasts up to a whole line buffer, the calling thread (the UI) does not wait for it.
+     */
+    private static void closeUnused(TargetDataLine input, SourceDataLine output) {
+        if (input == null && output == null) return;
+        Thread closer = new Thread(() -> {
+            if (output != null) {
+                output.drain();
+                output.close();
+            }
+            if (input != null) {
+                input.stop();
+                input.close();
+            }
+        }, "audio-close");
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /**
+     * Switches to a prepared configuration, by the audio thread between two frames or while it does
+     * not run. Only references are changed here, nothing is allocated.
+     */
+    private void apply(Reconfiguration next) {
+        if (next.audioInput != null && next.audioInput != audioInput) {
+            // Captured since it was started by the calling thread, it would stay as latency
+            next.audioInput.flush();
+        }
+        audioInput = next.audioInput;
+        audioOutput = next.audioOutput;
+        inputSignal.adopt(next.inputSignal);
+        outputSignal.adopt(next.outputSignal);
+        floatInput = next.floatInput;
+        if (next.isPreparingEffects) {
+            effectChain.suspend();
+        }
+        metrics.setFrameFormat(inputSignal.getFrameSize(), next.sampleRate);
+        metrics.lineReopened();
 
-            outputSignal.setFrom(inputSignal); // No effect applied
+        fadeInPosition = 0;
+        fadeInLength = next.crossfadeSamples;
+        next.applied.countDown();
+    }
+
+    /** Everything the audio thread needs to switch configuration, allocated by the thread asking for it. */
+    private static final class Reconfiguration {
+        final TargetDataLine audioInput;
+        final SourceDataLine audioOutput;
+        final AudioSignal inputSignal, outputSignal;
+        final FloatAudioSignal floatInput;
+        final int capacity, channels;
+        final float sampleRate;
+        final boolean isPreparingEffects; // the effects must be prepared again for the new signals
+        final int crossfadeSamples;
+        final CountDownLatch applied = new CountDownLatch(1);
+
+        Reconfiguration(TargetDataLine audioInput, SourceDataLine audioOutput, int frameSize,
+                        int crossfadeSamples, FrameSizeController controller, EffectChain effectChain,
+                        Precision precision) {
+            this.audioInput = audioInput;
+            this.audioOutput = audioOutput;
+            this.crossfadeSamples = crossfadeSamples;
+            channels = channelsOf(audioInput);
+            sampleRate = sampleRateOf(audioInput);
+            capacity = controller != null ? Math.max(frameSize, controller.getMaxFrameSize()) : frameSize;
+            inputSignal = new AudioSignal(capacity, channels);
+            outputSignal = new AudioSignal(capacity, channels);
+            inputSignal.setFrameSize(frameSize);
+            outputSignal.setFrameSize(frameSize);
+            if (audioInput != null) inputSignal.prepareFor(audioInput);
+            if (audioOutput != null) outputSignal.prepareFor(audioOutput);
+            floatInput = createFloatInput(precision, capacity, channels);
+            if (floatInput != null) {
+                floatInput.setFrameSize(frameSize);
+                if (audioInput != null) floatInput.prepareFor(audioInput);
+            }
+            isPreparingEffects = capacity > effectChain.getMaxFrameSize() || sampleRate != effectChain.getSampleRate()
+                    || channels != effectChain.getChannels();
+        }
+    }
+
+    /**
+     * Switches to the frame size chosen by the controller, between two frames. The signals and the
+     * line buffers already hold the largest size, so nothing is allocated and the lines stay open.
+     */
+    private void applyFrameSize(FrameSizeController controller) {
+        int frameSize = controller.getFrameSize();
+        inputSignal.setFrameSize(frameSize);
+        outputSignal.setFrameSize(frameSize);
+        if (floatInput != null) floatInput.setFrameSize(frameSize);
+        metrics.setFrameFormat(frameSize, sampleRateOf(audioInput));
+    }
+
+    /**
+     * Computes the output frame from the input frame. Shared by run() and by AudioPipeline.
+     * The analyzer and the pitch detector, if any, are fed with the first channel.
+     */
+    public void process(AudioSignal input, AudioSignal output) {
+        STFTAnalyzer analyzer = this.analyzer;
+        if (analyzer != null) {
+            analyzer.feed(input.getSampleBuffer(), input.getFrameSize());
+        }
+        PitchDetector pitchDetector = this.pitchDetector;
+        if (pitchDetector != null) {
+            pitchDetector.feed(input.getSampleBuffer(), input.getFrameSize());
+        }
+
+        output.copyFrom(input);
 
-            outputSignal.playTo(audioOutput, true);
+        if (!effectChain.isEmpty()) {
+            effectChain.process(output.getChannels(), output.getFrameSize());
+            output.updateLevel();
         }
     }
 
     /**
-     * Tells the thread loop to break as soon as possible. This is an asynchronous process.
+     * Stops the audio thread and closes the lines. Stopping the lines makes a read or a write in
+     * progress return, the thread then finishes its frame; this method returns once it has ended,
+     * and only then closes the lines, so the thread never uses a closed line.
      */
-    public void terminateAudioThread() {
+    public synchronized void terminateAudioThread() {
         this.isThreadRunning = false;
-        this.audioOutput.close();
-        this.audioInput.close();
+        if (this.audioInput != null) this.audioInput.stop();
+        if (this.audioOutput != null) this.audioOutput.stop();
+
+        Thread thread = audioThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            boolean isInterrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    isInterrupted = true; // finish stopping, the interruption is passed on after
+                }
+            }
+            if (isInterrupted) Thread.currentThread().interrupt();
+        }
+        audioThread = null;
+
+        if (this.audioOutput != null) this.audioOutput.close();
+        if (this.audioInput != null) this.audioInput.close();
     }
 
     // todo here: all getters and setters
@@ -64,9 +401,120 @@ public class AudioProcessor implements Runnable {
         this.inputSignal = inputSignal;
     }
 
+    /**
+     * Changes the frame size, and prepares the effects for it on the calling thread.
+     * The thread must not be running: use reconfigure() while it runs.
+     * @throws IllegalStateException if the audio thread runs
+     */
     public void setFrameSize(int FrameSize) {
+        checkStopped();
         this.inputSignal.setFrameSize(FrameSize);
         this.outputSignal.setFrameSize(FrameSize);
+        if (this.floatInput != null) this.floatInput.setFrameSize(FrameSize);
+        this.effectChain.prepare(inputSignal.getCapacity(), sampleRateOf(audioInput));
+        this.metrics.setFrameFormat(FrameSize, sampleRateOf(audioInput));
+    }
+
+    public FrameSizeController getFrameSizeController() {
+        return frameSizeController;
+    }
+
+    /**
+     * Lets a controller choose the frame size while the thread runs, null to keep the current size.
+     * The buffers of the signals and effects are sized for the largest frame of the controller,
+     * and the frame size is set to its first choice. The thread must not be running; open the lines
+     * with the buffer size given by controller.getLineBufferSize(), which holds the largest frame.
+     */
+    public void setFrameSizeController(FrameSizeController controller) {
+        checkStopped();
+        if (controller != null) {
+            inputSignal.reserve(controller.getMaxFrameSize());
+            outputSignal.reserve(controller.getMaxFrameSize());
+            if (floatInput != null) floatInput.setFrameSize(controller.getMaxFrameSize());
+            setFrameSize(controller.getFrameSize());
+        }
+        this.frameSizeController = controller;
+    }
+
+    /** Changes the number of channels of the signals and of the effects. The thread must not be running. */
+    public void setChannelCount(int channels) {
+        checkStopped();
+        this.inputSignal.setChannelCount(channels);
+        this.outputSignal.setChannelCount(channels);
+        this.floatInput = createFloatInput(precision, inputSignal.getCapacity(), channels);
+        if (this.floatInput != null) this.floatInput.setFrameSize(inputSignal.getFrameSize());
+        this.effectChain.prepare(inputSignal.getCapacity(), sampleRateOf(audioInput), channels);
+    }
+
+    /** The setters that prepare the effects on the calling thread would race with the audio thread. */
+    private void checkStopped() {
+        if (audioThread != null) {
+            throw new IllegalStateException("The audio thread is running, use reconfigure()");
+        }
+        if (pipeline != null) {
+            throw new IllegalStateException("An AudioPipeline is running this processor");
+        }
+    }
+
+    /**
+     * Called by AudioPipeline.start(): the pipeline has fixed frames, so it neither runs with the audio
+     * thread nor with a FrameSizeController, and the processor cannot be reconfigured until it stops.
+     */
+    synchronized void attachPipeline(AudioPipeline pipeline) {
+        checkStopped();
+        if (frameSizeController != null) {
+            throw new IllegalStateException("AudioPipeline does not support the adaptive frame size");
+        }
+        this.pipeline = pipeline;
+    }
+
+    /** Called by AudioPipeline.terminate() once its threads are finished. */
+    synchronized void detachPipeline() {
+        this.pipeline = null;
+    }
+
+    public STFTAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /** Sets the analyzer fed with every input frame, null to stop the analysis.
+     * The analyzer must be created off the audio thread, as its constructor allocates. */
+    public void setAnalyzer(STFTAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    public PitchDetector getPitchDetector() {
+        return pitchDetector;
+    }
+
+    /** Sets the pitch detector fed with every input frame, null to stop it. Like the analyzer,
+     * it must be created off the audio thread. */
+    public void setPitchDetector(PitchDetector pitchDetector) {
+        this.pitchDetector = pitchDetector;
+    }
+
+    /** @return the precision of the capture and of the analyses, chosen at construction */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /** @return the timings, xruns and buffer levels of the audio loop */
+    public AudioMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return the effects applied to the input, empty by default */
+    public EffectChain getEffectChain() {
+        return effectChain;
+    }
+
+    private static float sampleRateOf(DataLine line) {
+        // Lines may be missing when no device is available, effects then get a usual rate
+        return line != null ? line.getFormat().getSampleRate() : 44100f;
+    }
+
+    private static int channelsOf(DataLine line) {
+        return line != null ? line.getFormat().getChannels() : 1;
     }
 
     public AudioSignal getOutputSignal() {
@@ -81,8 +529,12 @@ public class AudioProcessor implements Runnable {
         return audioInput;
     }
 
+    /** Sets the input line, the signals and effects follow its number of channels. */
     public void setAudioInput(TargetDataLine audioInput) {
         this.audioInput = audioInput;
+        if (channelsOf(audioInput) != inputSignal.getChannelCount()) {
+            setChannelCount(channelsOf(audioInput));
+        }
     }
 
     public SourceDataLine getAudioOutput() {
@@ -95,10 +547,12 @@ public class AudioProcessor implements Runnable {
 
     /* an example of a possible test code */
     public static void main(String[] args) {
+        // Number of channels as first argument, mono by default
+        int channels = args.length > 0 ? Integer.parseInt(args[0]) : 1;
         AudioIO.printAudioMixers();
-        AudioFormat audioFormat = new AudioFormat(16000.0f, 16, 1, true, true);
-        TargetDataLine inLine = AudioIO.obtainAudioInput("Headset Microphone (Realtek(R) ", 16000);
-        SourceDataLine outLine = AudioIO.obtainAudioOutput("Headphone (Realtek(R) Audio)", 16000);
+        AudioFormat audioFormat = new AudioFormat(16000.0f, 16, channels, true, true);
+        TargetDataLine inLine = AudioIO.obtainAudioInput("Headset Microphone (Realtek(R) ", 16000, channels);
+        SourceDataLine outLine = AudioIO.obtainAudioOutput("Headphone (Realtek(R) Audio)", 16000, channels);
         AudioProcessor as = new AudioProcessor(inLine, outLine, 1024);
 
         try {
@@ -110,7 +564,7 @@ public class AudioProcessor implements Runnable {
             throw new RuntimeException(e);
         }
 
-        new Thread(as).start();
+        as.start();
 
         System.out.println("A new thread has been created!");
     }
@@ -2,85 +2,231 @@ package audio;
 
 import math.Complex;
 import math.FFT;
+import math.Kernels;
 
 import javax.sound.sampled.*;
 
+/**
+ * A frame of audio samples, with one buffer per channel (planar layout). Mono code can ignore the
+ * channels: getSampleBuffer(), getSample() and getdBlevel() give the first channel and the level of
+ * the whole frame.
+ */
 public class AudioSignal {
 
-    private double[] sampleBuffer; // floating point representation of audio samples
-    private double dBlevel; // current signal level
+    private double[][] channels; // floating point representation of audio samples, one array per channel
+    private double[] sampleBuffer; // channels[0]
+    private int frameSize; // samples of each channel in the frame, at most the length of the buffers
+    private double dBlevel; // current signal level, all channels together
+    private double[] channelLevels; // current level of each channel
+    private final FrameExchange frames; // frames published to other threads
+    private double[] mixBuffer; // average of the channels, published when there are several
+
+    // PCM conversion state, only reallocated or resolved again when the frame size or the line changes
+    private byte[] byteBuffer = new byte[0];
+    private DataLine codecLine; // line the codec has been resolved for
+    private PCMCodec codec;
 
     /** Construct an AudioSignal that may contain up to "frameSize" samples.
         * @param frameSize the number of samples in one audio frame */
     public AudioSignal(int frameSize) {
-        sampleBuffer = new double[frameSize];
+        this(frameSize, 1);
+    }
+
+    /** Construct an AudioSignal of several channels.
+        * @param frameSize the number of samples of each channel in one audio frame
+        * @param channelCount the number of channels, 1 for mono */
+    public AudioSignal(int frameSize, int channelCount) {
+        allocate(frameSize, channelCount);
+        frames = new FrameExchange(frameSize);
     }
 
     public AudioSignal(AudioSignal other) {
+        this.channels = other.channels;
         this.sampleBuffer = other.sampleBuffer;
+        this.frameSize = other.frameSize;
+        this.mixBuffer = other.mixBuffer;
         this.dBlevel = other.dBlevel;
+        this.channelLevels = other.channelLevels.clone();
+        this.frames = new FrameExchange(other.sampleBuffer.length);
+    }
+
+    /** Allocates buffers of capacity samples per channel, and makes them one frame. */
+    private void allocate(int capacity, int channelCount) {
+        if (channelCount < 1) {
+            throw new IllegalArgumentException("An AudioSignal has at least one channel");
+        }
+        channels = new double[channelCount][capacity];
+        sampleBuffer = channels[0];
+        mixBuffer = new double[channelCount > 1 ? capacity : 0];
+        channelLevels = new double[channelCount];
+        frameSize = capacity;
+    }
+
+    /**
+     * Makes the buffers large enough for frames of up to capacity samples, so that later calls to
+     * setFrameSize() up to that size change the frame without allocating. The frame size itself does
+     * not change, nor does the content. Must not be called while another thread uses the signal.
+     */
+    public void reserve(int capacity) {
+        if (capacity > sampleBuffer.length) {
+            int frameSize = this.frameSize;
+            double[][] previous = channels;
+            allocate(capacity, channels.length);
+            for (int c = 0; c < channels.length; c++) {
+                System.arraycopy(previous[c], 0, channels[c], 0, frameSize);
+            }
+            this.frameSize = frameSize;
+        }
+        frames.reserve(capacity);
+    }
+
+    /**
+     * Takes the buffers and the line state of a signal prepared by another thread, so that the audio
+     * thread changes the frame size, the channels or the line between two frames without allocating:
+     * the slots of the published frames are taken from the prepared signal too. The prepared signal
+     * must not be used afterwards.
+     */
+    void adopt(AudioSignal prepared) {
+        channels = prepared.channels;
+        sampleBuffer = prepared.sampleBuffer;
+        frameSize = prepared.frameSize;
+        mixBuffer = prepared.mixBuffer;
+        channelLevels = prepared.channelLevels;
+        dBlevel = prepared.dBlevel;
+        byteBuffer = prepared.byteBuffer;
+        codecLine = prepared.codecLine;
+        codec = prepared.codec;
+        frames.adoptSlots(prepared.frames);
+    }
+
+    /** Resolves the codec of a line and sizes the conversion buffer for it, before the line is used. */
+    void prepareFor(DataLine line) {
+        codecFor(line);
+    }
+
+    /** @return the largest frame the buffers hold without being reallocated */
+    public int getCapacity() {
+        return sampleBuffer.length;
     }
 
     /** Sets the content of this signal from another signal.
         * @param other other.length must not be lower than the length of this signal. */
     public void setFrom(AudioSignal other) {
         this.dBlevel = other.dBlevel;
+        this.channels = other.channels;
         this.sampleBuffer = other.sampleBuffer;
+        this.frameSize = other.frameSize;
+        this.mixBuffer = other.mixBuffer;
+        this.channelLevels = other.channelLevels.clone();
+    }
+
+    /** Copies the content of another signal into this signal's own buffers, which are
+        * reallocated only if they are too short for the frame or the numbers of channels differ. */
+    public void copyFrom(AudioSignal other) {
+        if (this.sampleBuffer.length < other.frameSize || this.channels.length != other.channels.length) {
+            allocate(Math.max(other.frameSize, this.sampleBuffer.length), other.channels.length);
+        }
+        this.frameSize = other.frameSize;
+        for (int c = 0; c < channels.length; c++) {
+            System.arraycopy(other.channels[c], 0, this.channels[c], 0, frameSize);
+        }
+        System.arraycopy(other.channelLevels, 0, this.channelLevels, 0, channelLevels.length);
+        this.dBlevel = other.dBlevel;
     }
 
-    /** Fills the buffer content from the given input. Byte's are converted on the fly to double's.
+    /** Takes the frame and the level of a mono signal recorded in single precision, widened to double.
+        * This signal must be mono too, with buffers large enough for the frame. */
+    void widenFrom(FloatAudioSignal other) {
+        float[] samples = other.getSampleBuffer();
+        this.frameSize = other.getFrameSize();
+        for (int i = 0; i < frameSize; i++) {
+            sampleBuffer[i] = samples[i];
+        }
+        this.dBlevel = other.getdBlevel();
+        channelLevels[0] = dBlevel;
+    }
+
+    /** Fills the buffers from the given input. Bytes are converted to doubles and split between the
+        * channels in a single pass.
         * @return false if at end of stream */
     public boolean recordFrom(TargetDataLine audioInput) {
-        byte[] byteBuffer = new byte[sampleBuffer.length*2]; // 16 bit samples
-        if (audioInput.read(byteBuffer, 0, byteBuffer.length)==-1) return false;
+        PCMCodec codec = codecFor(audioInput);
+        int byteCount = frameSize * channels.length * codec.getBytesPerSample();
+        if (audioInput.read(byteBuffer, 0, byteCount)==-1) return false;
 
-        for (int i=0; i<sampleBuffer.length; i++)
-            sampleBuffer[i] = ((byteBuffer[2*i]<<8)+byteBuffer[2*i+1]) / 32768.0; // big endian
+        codec.decode(byteBuffer, channels, channels.length, frameSize);
 
-        // Calculate the root-mean-square (RMS) value
-        double sum = 0.0;
-        for (double sample : sampleBuffer) {
-            sum += sample * sample;
+        updateLevel();
+
+        return true;
+    }
+
+    /** Computes the levels of the current buffer content again, after it has been modified. */
+    public void updateLevel() {
+        if (channels.length == 1) {
+            this.dBlevel = levelIndB(sampleBuffer, frameSize);
+            channelLevels[0] = dBlevel;
+            return;
         }
-        double rms = Math.sqrt(sum / sampleBuffer.length);
 
-        // Convert the RMS value to dBFS (dB relative to full scale)
-        this.dBlevel = 20 * Math.log10(rms);
+        // The level of the frame is the one of the mean power of the channels
+        double power = 0;
+        for (int c = 0; c < channels.length; c++) {
+            channelLevels[c] = levelIndB(channels[c], frameSize);
+            power += Math.pow(10, channelLevels[c] / 10);
+        }
+        this.dBlevel = 10 * Math.log10(power / channels.length);
+    }
 
-        return true;
+    /** Computes the level of a block of samples.
+     * @return the root-mean-square value of the samples in dBFS (dB relative to full scale) */
+    public static double levelIndB(double[] samples) {
+        return levelIndB(samples, samples.length);
+    }
+
+    /** Computes the level of the first length samples, see levelIndB(double[]). */
+    public static double levelIndB(double[] samples, int length) {
+        // Calculate the root-mean-square (RMS) value
+        double sum = Kernels.get().sumOfSquares(samples, length);
+        double rms = Math.sqrt(sum / length);
+
+        // Convert the RMS value to dBFS (dB relative to full scale)
+        return 20 * Math.log10(rms);
     }
 
-    /** Convert doubles into bytes for 16 and 8 bits audioFormats
+    /** Convert doubles into bytes for 8, 16 and 24 bits big endian audioFormats
      * @return byte array of a double array*/
     public byte[] convertDoublesToBytes(double[] doubles, int SizeInBits) {
-        if (SizeInBits == 16) {
-            byte[] bytes = new byte[doubles.length * 2];
-            for (int i = 0; i < doubles.length; i++) {
-                // Scale the double value to the range of bytes (-32768 to 32767)
-                short scaledValue = (short) (doubles[i] * Short.MAX_VALUE);
+        PCMCodec codec = PCMCodec.forSampleSize(SizeInBits);
+        byte[] bytes = new byte[doubles.length * codec.getBytesPerSample()];
+        codec.encode(doubles, bytes, doubles.length);
+        return bytes;
+    }
 
-                // 16 bit audio format handling
-                bytes[2 * i] = (byte) ((scaledValue >> 8) & 0xFF);
-                bytes[2 * i + 1] = (byte) (scaledValue & 0xFF);
+    /** Encodes the buffer content into byteBuffer with the codec of the given line.
+     * @return the number of bytes to write */
+    private int encodeFor(SourceDataLine audioOutput) {
+        PCMCodec codec = codecFor(audioOutput);
+        codec.encode(channels, channels.length, byteBuffer, frameSize);
+        return frameSize * channels.length * codec.getBytesPerSample();
+    }
 
+    /** Resolves the codec of a line the first time it is used, and sizes byteBuffer for it, for the
+        * largest frame the buffers hold. */
+    private PCMCodec codecFor(DataLine line) {
+        if (line != codecLine) {
+            if (line.getFormat().getChannels() != channels.length) {
+                throw new RuntimeException("The line has " + line.getFormat().getChannels()
+                        + " channels, the signal " + channels.length);
             }
-            return bytes;
+            codec = PCMCodec.forFormat(line.getFormat());
+            codecLine = line;
         }
-
-        if (SizeInBits == 8) {
-            byte[] bytes = new byte[doubles.length];
-            for (int i = 0; i < doubles.length; i++) {
-                // Scale the double value to the range of bytes (-32768 to 32767)
-                short scaledValue = (short) (doubles[i] * 127);
-
-                // 8 bit audio format handling
-                bytes[i] = (byte) scaledValue;
-
-            }
-            return bytes;
+        int byteCount = sampleBuffer.length * channels.length * codec.getBytesPerSample();
+        if (byteBuffer.length < byteCount) {
+            byteBuffer = new byte[byteCount];
         }
-
-        throw new RuntimeException("Sample Size in Bits not supported");
+        return codec;
     }
 
     /** Plays the buffer content to the given output.
@@ -91,7 +237,7 @@ public class AudioSignal {
         audioOutput.start();
 
         // Write the audio data to the SourceDataLine
-        audioOutput.write(convertDoublesToBytes(this.sampleBuffer, audioOutput.getFormat().getSampleSizeInBits()), 0, this.sampleBuffer.length * 2);
+        audioOutput.write(byteBuffer, 0, encodeFor(audioOutput));
 
         // Block until all data is played
         audioOutput.drain();
@@ -111,7 +257,7 @@ public class AudioSignal {
         if(!continuous) audioOutput.start();
 
         // Write the audio data to the SourceDataLine
-        audioOutput.write(convertDoublesToBytes(this.sampleBuffer, audioOutput.getFormat().getSampleSizeInBits()), 0, this.sampleBuffer.length * 2);
+        audioOutput.write(byteBuffer, 0, encodeFor(audioOutput));
 
         // Block until all data is played
         if(!continuous) audioOutput.drain();
@@ -134,18 +280,74 @@ public class AudioSignal {
         return dBlevel;
     }
 
+    /** @return the level of one channel in dBFS */
+    public double getdBlevel(int channel) {
+        return channelLevels[channel];
+    }
+
     public int getFrameSize() {
-        return sampleBuffer.length;
+        return frameSize;
     }
 
+    /** Changes the number of samples in a frame. Nothing is allocated if the buffers are large
+        * enough (see reserve()), the content of the buffers is lost otherwise. */
     public void setFrameSize(int FrameSize) {
-        this.sampleBuffer = new double[FrameSize];
+        if (FrameSize > sampleBuffer.length) {
+            allocate(FrameSize, channels.length);
+        }
+        this.frameSize = FrameSize;
     }
 
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    /** Changes the number of channels, the content of the buffers is lost. */
+    public void setChannelCount(int channelCount) {
+        int frameSize = this.frameSize;
+        allocate(sampleBuffer.length, channelCount);
+        this.frameSize = frameSize;
+    }
+
+    /** @return the buffer of the first channel, whose first getFrameSize() values are the frame */
     public double[] getSampleBuffer() {
         return sampleBuffer;
     }
 
+    /** @return the buffer of one channel */
+    public double[] getChannel(int channel) {
+        return channels[channel];
+    }
+
+    /** @return the buffers of every channel, only the first getChannelCount() are used */
+    public double[][] getChannels() {
+        return channels;
+    }
+
+    /** Makes a copy of the current frame available to the readers of getFrames(). With several
+     * channels, their average is published. To be called by the audio thread once the frame is complete.
+     * @return the sequence number of the published frame */
+    public long publish() {
+        if (channels.length == 1) {
+            return frames.publish(sampleBuffer, frameSize, dBlevel);
+        }
+
+        System.arraycopy(channels[0], 0, mixBuffer, 0, frameSize);
+        for (int c = 1; c < channels.length; c++) {
+            double[] channel = channels[c];
+            for (int i = 0; i < frameSize; i++) {
+                mixBuffer[i] += channel[i];
+            }
+        }
+        Kernels.get().scale(mixBuffer, frameSize, 1.0 / channels.length);
+        return frames.publish(mixBuffer, frameSize, dBlevel);
+    }
+
+    /** @return the frames published by the audio thread, the only safe way to read this signal from another thread */
+    public FrameExchange getFrames() {
+        return frames;
+    }
+
 
     public void playTestSin(SourceDataLine sourceDataLine) {
         if(sourceDataLine.getFormat().getSampleSizeInBits() == 16) {
@@ -162,7 +364,10 @@ public class AudioSignal {
                 buffer[i] = sampleValue;
             }
 
-            this.sampleBuffer = buffer;
+            // The same sine wave on every channel
+            for (double[] channel : channels) {
+                System.arraycopy(buffer, 0, channel, 0, bufferSize);
+            }
 
             this.playTo(sourceDataLine);
             sourceDataLine.drain();
@@ -188,7 +393,10 @@ public class AudioSignal {
                 buffer[i] = sampleValue;
             }
 
-            this.sampleBuffer = buffer;
+            // The same sine wave on every channel
+            for (double[] channel : channels) {
+                System.arraycopy(buffer, 0, channel, 0, bufferSize);
+            }
 
             this.playTo(sourceDataLine, continuous);
 
@@ -256,19 +464,38 @@ public class AudioSignal {
 
     }
 
+    /** Computes the spectrum of the current frame. As the samples are real, only the
+     * non-redundant half of the spectrum is returned.
+     * @return the bins 0 to fftSize/2 where fftSize is the frame size, plus one if it is odd */
     public Complex[] computeFFT() {
-        // Ensure that the sampleBuffer has a length that is a power of 2 for the FFT algorithm
-        int fftSize = 1;
-        while (fftSize < sampleBuffer.length) {
-            fftSize *= 2;
+        return computeFFT(sampleBuffer, frameSize);
+    }
+
+    /** Computes the spectrum of one channel of the current frame, see computeFFT(). */
+    public Complex[] computeFFT(int channel) {
+        return computeFFT(channels[channel], frameSize);
+    }
+
+    /** Computes the spectrum of the first length values of samples, see computeFFT(). */
+    public static Complex[] computeFFT(double[] samples, int length) {
+        // The FFT handles any size, only an odd frame gets one zero to make the real FFT possible
+        int fftSize = length + length % 2;
+
+        double[] fftBuffer = samples;
+        if (fftSize != samples.length) {
+            fftBuffer = new double[fftSize];
+            System.arraycopy(samples, 0, fftBuffer, 0, length);
         }
 
-        // Create a new buffer with the correct size for the FFT
-        double[] fftBuffer = new double[fftSize];
-        System.arraycopy(sampleBuffer, 0, fftBuffer, 0, Math.min(sampleBuffer.length, fftSize));
+        // Perform a real FFT on the buffer
+        double[] re = new double[fftSize / 2 + 1];
+        double[] im = new double[fftSize / 2 + 1];
+        FFT.realFFT(fftBuffer, re, im);
 
-        // Perform FFT on the buffer
-        Complex[] fftResult = FFT.fft(Complex.fromArray(fftBuffer));
+        Complex[] fftResult = new Complex[re.length];
+        for (int i = 0; i < fftResult.length; i++) {
+            fftResult[i] = new Complex(re[i], im[i]);
+        }
 
         return fftResult;
     }
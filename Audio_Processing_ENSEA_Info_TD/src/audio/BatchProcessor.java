@@ -0,0 +1,166 @@
+package audio;
+
+import math.Precision;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Processes many files at once, spread over a work-stealing pool with one worker per core by
+ * default. Each worker thread owns an OfflineProcessor (buffers, effect chain and analyzer) built
+ * the first time it picks up a file, so workers share nothing but the immutable FFT plans.
+ * Only a bounded number of files are queued at a time, the next input is taken from the
+ * iterator when a file is done, and a file that fails does not stop the others.
+ */
+public class BatchProcessor implements AutoCloseable {
+    private final ForkJoinPool pool;
+    private final int maxQueuedFiles;
+    private final ThreadLocal<OfflineProcessor> workerProcessor;
+
+    /**
+     * @param threads the number of worker threads
+     * @param blockSize the number of samples processed at once by each worker
+     * @param setup configures the AudioProcessor of each worker (effects, analyzer), called once per worker
+     */
+    public BatchProcessor(int threads, int blockSize, Consumer<AudioProcessor> setup) {
+        this(threads, blockSize, Precision.DOUBLE, setup);
+    }
+
+    /**
+     * @param threads the number of worker threads
+     * @param blockSize the number of samples processed at once by each worker
+     * @param precision of the AudioProcessor of each worker, see OfflineProcessor
+     * @param setup configures the AudioProcessor of each worker (effects, analyzer), called once per worker
+     */
+    public BatchProcessor(int threads, int blockSize, Precision precision, Consumer<AudioProcessor> setup) {
+        this.pool = new ForkJoinPool(threads);
+        this.maxQueuedFiles = 2 * threads;
+        this.workerProcessor = ThreadLocal.withInitial(() -> {
+            OfflineProcessor offlineProcessor = new OfflineProcessor(blockSize, precision);
+            setup.accept(offlineProcessor.getAudioProcessor());
+            return offlineProcessor;
+        });
+    }
+
+    /** One worker per available core. */
+    public BatchProcessor(int blockSize, Consumer<AudioProcessor> setup) {
+        this(Runtime.getRuntime().availableProcessors(), blockSize, setup);
+    }
+
+    /**
+     * Processes every input file into a file of the same name in the output directory. Inputs of
+     * the same name from different directories get a number before the extension ("take-2.wav"),
+     * so that no two workers write the same output.
+     * @return the outcome of each file, in the order of the inputs
+     * @throws Error the first error (e.g. OutOfMemoryError) that stopped a file, once every file is done
+     */
+    public List<Outcome> process(Iterable<File> inputs, File outputDirectory) throws InterruptedException {
+        Semaphore queued = new Semaphore(maxQueuedFiles);
+        List<ForkJoinTask<Outcome>> tasks = new ArrayList<>();
+        Set<String> outputNames = new HashSet<>();
+
+        Iterator<File> iterator = inputs.iterator();
+        while (iterator.hasNext()) {
+            File input = iterator.next();
+            File output = new File(outputDirectory, uniqueName(input.getName(), outputNames));
+            // Back-pressure: wait for a file to be done before taking more inputs
+            queued.acquire();
+            tasks.add(pool.submit(() -> processOne(input, output, queued)));
+        }
+
+        // processOne() turns exceptions into outcomes, only errors are thrown by join()
+        List<Outcome> outcomes = new ArrayList<>(tasks.size());
+        Error error = null;
+        for (ForkJoinTask<Outcome> task : tasks) {
+            try {
+                outcomes.add(task.join());
+            } catch (Error e) {
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+        }
+        if (error != null) throw error;
+        return outcomes;
+    }
+
+    /**
+     * @return the name, or the name with the first number from 2 that makes it unique in the batch.
+     * Names differing only by case are the same file on some systems, they count as taken.
+     */
+    private static String uniqueName(String name, Set<String> taken) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String unique = name;
+        for (int n = 2; !taken.add(unique.toLowerCase(Locale.ROOT)); n++) {
+            unique = base + "-" + n + extension;
+        }
+        return unique;
+    }
+
+    /** Processes a file, and releases its permit of the queue whatever happens, errors included. */
+    private Outcome processOne(File input, File output, Semaphore queued) {
+        try {
+            return new Outcome(input, workerProcessor.get().process(input, output), null);
+        } catch (Exception e) {
+            return new Outcome(input, null, e);
+        } catch (Error e) {
+            // The buffers and effects of the worker may be left half updated, the next file gets new ones
+            workerProcessor.remove();
+            throw e;
+        } finally {
+            queued.release();
+        }
+    }
+
+    /** Stops the worker threads once their current files are done. */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /** What happened to one file: either a result or the error that stopped it. */
+    public static class Outcome {
+        private final File file;
+        private final OfflineProcessor.Result result;
+        private final Exception error;
+
+        Outcome(File file, OfflineProcessor.Result result, Exception error) {
+            this.file = file;
+            this.result = result;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /** @return the result of the processing, null if it failed */
+        public OfflineProcessor.Result getResult() {
+            return result;
+        }
+
+        /** @return why the processing failed, null if it succeeded */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return isSuccess() ? result.toString() : file.getName() + ": failed, " + error;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package audio;
+
+import math.Biquad;
+
+/**
+ * A cascade of second order sections: a parametric EQ, a crossover branch, or any filter built from
+ * {@link Biquad} sections. The coefficients of the whole cascade are a single double[], and the
+ * sections are run over the whole frame two at a time by a static loop that keeps their state in
+ * locals, so the per-sample code has neither allocation nor virtual call. A section alone is bound by
+ * the latency of its feedback; with two, the processor computes both chains at once.
+ * The sections are changed from another thread (the UI) with setSection() or setGainIndB(): the
+ * new coefficients are computed there and published with a single volatile write. The audio thread
+ * then moves its own copy toward them frame after frame, with a time constant of SMOOTHING_SECONDS,
+ * so that a moving slider does not click.
+ */
+public class BiquadEffect implements AudioEffect {
+    /** Time constant of the coefficient changes. */
+    public static final double SMOOTHING_SECONDS = 0.02;
+
+    /** Center frequencies of the 10 bands of an octave EQ. */
+    public static final double[] OCTAVE_FREQUENCIES = {31.25, 62.5, 125, 250, 500, 1000, 2000, 4000, 8000, 16000};
+
+    // Parameters of the sections, changed by the UI under the lock
+    private final Biquad[] types;
+    private final double[] frequencies, qs, gains;
+    private float sampleRate;
+    private double smoothingSamples;
+
+    // Coefficients toward which the audio thread moves, replaced as a whole
+    private volatile double[] target;
+
+    // One state per channel, allocated in prepare()
+    private double[][] coefficients = new double[1][]; // the smoothed coefficients in use
+    private double[][] states = new double[1][]; // two values per section
+
+    /** @param sections the number of sections, all flat until they are set */
+    public BiquadEffect(int sections) {
+        types = new Biquad[sections];
+        frequencies = new double[sections];
+        qs = new double[sections];
+        gains = new double[sections];
+        for (int s = 0; s < sections; s++) {
+            types[s] = Biquad.PEAK;
+            frequencies[s] = 1000;
+            qs[s] = 1;
+        }
+        target = flat(sections);
+    }
+
+    /** @return a parametric EQ with one flat PEAK section per frequency */
+    public static BiquadEffect equalizer(double[] frequencies, double q) {
+        BiquadEffect equalizer = new BiquadEffect(frequencies.length);
+        for (int s = 0; s < frequencies.length; s++) {
+            equalizer.setSection(s, Biquad.PEAK, frequencies[s], q, 0);
+        }
+        return equalizer;
+    }
+
+    /** @return a 10 bands octave EQ, all bands at 0 dB */
+    public static BiquadEffect octaveEqualizer() {
+        return equalizer(OCTAVE_FREQUENCIES, Math.sqrt(2));
+    }
+
+    /**
+     * @return one branch of a 4th order Linkwitz-Riley crossover, two Butterworth sections: the low and
+     * high branches of the same frequency add up to a flat magnitude
+     */
+    public static BiquadEffect linkwitzRiley(double frequency, boolean isHighPass) {
+        Biquad type = isHighPass ? Biquad.HIGH_PASS : Biquad.LOW_PASS;
+        BiquadEffect crossover = new BiquadEffect(2);
+        crossover.setSection(0, type, frequency, Biquad.BUTTERWORTH_Q, 0);
+        crossover.setSection(1, type, frequency, Biquad.BUTTERWORTH_Q, 0);
+        return crossover;
+    }
+
+    private static double[] flat(int sections) {
+        double[] c = new double[sections * Biquad.COEFFICIENTS];
+        for (int s = 0; s < sections; s++) {
+            c[s * Biquad.COEFFICIENTS] = 1;
+        }
+        return c;
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate) {
+        prepare(maxFrameSize, sampleRate, 1);
+    }
+
+    @Override
+    public synchronized void prepare(int maxFrameSize, float sampleRate, int channels) {
+        this.sampleRate = sampleRate;
+        this.smoothingSamples = SMOOTHING_SECONDS * sampleRate;
+        publish();
+        // No smoothing from the previous configuration, the filters start from their settings
+        coefficients = new double[channels][];
+        for (int c = 0; c < channels; c++) {
+            coefficients[c] = target.clone();
+        }
+        states = new double[channels][2 * types.length];
+    }
+
+    /**
+     * Changes one section, may be called by any thread while the audio thread runs.
+     * @param gainIndB the gain of PEAK and shelf sections, ignored by the others
+     */
+    public synchronized void setSection(int section, Biquad type, double frequency, double q, double gainIndB) {
+        types[section] = type;
+        frequencies[section] = frequency;
+        qs[section] = q;
+        gains[section] = gainIndB;
+        publish();
+    }
+
+    /** Changes the gain of one section, e.g. a band of an EQ. */
+    public synchronized void setGainIndB(int section, double gainIndB) {
+        gains[section] = gainIndB;
+        publish();
+    }
+
+    /** Changes the frequency of one section. */
+    public synchronized void setFrequency(int section, double frequency) {
+        frequencies[section] = frequency;
+        publish();
+    }
+
+    /** Computes the coefficients of every section and hands them to the audio thread. */
+    private void publish() {
+        if (sampleRate <= 0) {
+            return; // computed in prepare(), once the rate is known
+        }
+        double[] next = new double[types.length * Biquad.COEFFICIENTS];
+        for (int s = 0; s < types.length; s++) {
+            types[s].design(next, s * Biquad.COEFFICIENTS, frequencies[s], qs[s], gains[s], sampleRate);
+        }
+        target = next;
+    }
+
+    public int getSections() {
+        return types.length;
+    }
+
+    public synchronized Biquad getType(int section) {
+        return types[section];
+    }
+
+    public synchronized double getFrequency(int section) {
+        return frequencies[section];
+    }
+
+    public synchronized double getQ(int section) {
+        return qs[section];
+    }
+
+    public synchronized double getGainIndB(int section) {
+        return gains[section];
+    }
+
+    /** @return the gain in dB of the whole cascade for a frequency, once the coefficients have settled */
+    public double gainIndB(double frequency) {
+        double[] target = this.target;
+        double gain = 0;
+        for (int s = 0; s < types.length; s++) {
+            gain += Biquad.gainIndB(target, s * Biquad.COEFFICIENTS, frequency, sampleRate);
+        }
+        return gain;
+    }
+
+    @Override
+    public void process(double[] samples, int length) {
+        process(samples, length, 0);
+    }
+
+    @Override
+    public void process(double[] samples, int length, int channel) {
+        double[] c = coefficients[channel];
+        double[] state = states[channel];
+
+        // The coefficients move toward the target once per frame, by the part of the time constant the frame lasts
+        double[] target = this.target;
+        double step = 1 - Math.exp(-length / smoothingSamples);
+        for (int i = 0; i < c.length; i++) {
+            c[i] += step * (target[i] - c[i]);
+        }
+
+        // Two sections per pass: each sample goes through both, whose dependency chains then overlap
+        int s = 0;
+        for (; s + 1 < types.length; s += 2) {
+            filter2(samples, length, c, s * Biquad.COEFFICIENTS, state, 2 * s);
+        }
+        if (s < types.length) {
+            filter(samples, length, c, s * Biquad.COEFFICIENTS, state, 2 * s);
+        }
+    }
+
+    /** Runs two consecutive sections over the frame, transposed direct form II. */
+    private static void filter2(double[] samples, int length, double[] c, int offset, double[] state, int stateOffset) {
+        double b0 = c[offset], b1 = c[offset + 1], b2 = c[offset + 2], a1 = c[offset + 3], a2 = c[offset + 4];
+        double d0 = c[offset + 5], d1 = c[offset + 6], d2 = c[offset + 7], e1 = c[offset + 8], e2 = c[offset + 9];
+        double z1 = state[stateOffset], z2 = state[stateOffset + 1];
+        double w1 = state[stateOffset + 2], w2 = state[stateOffset + 3];
+        for (int i = 0; i < length; i++) {
+            double x = samples[i];
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            double v = d0 * y + w1;
+            w1 = d1 * y - e1 * v + w2;
+            w2 = d2 * y - e2 * v;
+            samples[i] = v;
+        }
+        state[stateOffset] = flush(z1);
+        state[stateOffset + 1] = flush(z2);
+        state[stateOffset + 2] = flush(w1);
+        state[stateOffset + 3] = flush(w2);
+    }
+
+    /** Runs one section over the frame, transposed direct form II. */
+    private static void filter(double[] samples, int length, double[] c, int offset, double[] state, int stateOffset) {
+        double b0 = c[offset], b1 = c[offset + 1], b2 = c[offset + 2], a1 = c[offset + 3], a2 = c[offset + 4];
+        double z1 = state[stateOffset], z2 = state[stateOffset + 1];
+        for (int i = 0; i < length; i++) {
+            double x = samples[i];
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            samples[i] = y;
+        }
+        state[stateOffset] = flush(z1);
+        state[stateOffset + 1] = flush(z2);
+    }
+
+    /** After a silence the state decays into subnormal numbers, which are very slow to compute with. */
+    private static double flush(double z) {
+        return Math.abs(z) < 1e-30 ? 0 : z;
+    }
+}
@@ -0,0 +1,102 @@
+package audio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Helper threads that process the channels of a frame in parallel with the audio thread. The
+ * channels are split into as many groups as there are threads, the audio thread included; each
+ * frame, the audio thread wakes the helpers, processes its own group and waits for theirs.
+ * Nothing is allocated per frame, so the audio thread keeps its guarantees. What a helper throws is
+ * thrown again by the audio thread, as if it had processed the channels itself.
+ */
+final class ChannelWorkers {
+    /** The work done on a group of channels, from channel first (included) to channel last (excluded). */
+    interface Task {
+        void process(int first, int last, boolean isCaller);
+    }
+
+    private final Thread[] helpers;
+    private final int channels;
+    private final AtomicInteger pending = new AtomicInteger(); // helpers that have not finished the frame
+    private final AtomicReference<Throwable> failure = new AtomicReference<>(); // first thrown by a helper this frame
+    private volatile long generation; // incremented for each frame
+    private volatile Task task; // the work of the current frame
+    private volatile boolean isRunning = true;
+
+    /**
+     * @param channels the number of channels of each frame
+     * @param threads the number of threads working on a frame, the audio thread included, at least 2
+     */
+    ChannelWorkers(int channels, int threads) {
+        this.channels = channels;
+        helpers = new Thread[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            int group = i + 1;
+            helpers[i] = new Thread(() -> helperLoop(group), "audio-channels-" + group);
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+    }
+
+    /**
+     * Runs the task on every channel, on all the threads, and returns once every group is done.
+     * The first exception or error thrown by a helper is thrown here, once all of them are done.
+     */
+    void run(Task task) {
+        this.task = task;
+        pending.set(helpers.length);
+        generation++; // only written by the audio thread, the volatile write publishes the task
+        for (Thread helper : helpers) {
+            LockSupport.unpark(helper);
+        }
+
+        Throwable helperFailure;
+        try {
+            task.process(first(0), first(1), true);
+        } finally {
+            // The helpers work on the same frame, a short wait is cheaper than parking
+            while (pending.get() != 0) {
+                Thread.onSpinWait();
+            }
+            helperFailure = failure.getAndSet(null);
+        }
+
+        if (helperFailure instanceof RuntimeException) throw (RuntimeException) helperFailure;
+        if (helperFailure instanceof Error) throw (Error) helperFailure;
+        if (helperFailure != null) throw new RuntimeException(helperFailure);
+    }
+
+    /** Stops the helper threads once they have finished the current frame. */
+    void stop() {
+        isRunning = false;
+        for (Thread helper : helpers) {
+            LockSupport.unpark(helper);
+        }
+    }
+
+    /** @return the first channel of a group, or the number of channels for the group after the last one */
+    private int first(int group) {
+        return group * channels / (helpers.length + 1);
+    }
+
+    private void helperLoop(int group) {
+        long done = 0;
+        while (isRunning) {
+            long frame = generation;
+            if (frame == done) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                task.process(first(group), first(group + 1), false);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                done = frame;
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package audio;
+
+import math.FFT;
+import math.Kernels;
+import math.RealFFTPlan;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Convolution with an impulse response, for room reverbs, cabinet simulations or long FIR filters.
+ * The impulse response is cut into partitions of blockSize samples, whose spectra are computed once
+ * (uniformly partitioned overlap-save). Each block of input is then transformed once, kept in a delay
+ * line of spectra, and multiplied with every partition: a block costs two FFTs of 2*blockSize points
+ * and one complex multiply-accumulate per partition, whatever the frame size, instead of one
+ * multiplication per tap and per sample for a direct convolution. The output is late by blockSize
+ * samples; with a blockSize equal to the frame size, every frame costs the same.
+ */
+public class ConvolutionEffect implements AudioEffect {
+    private final int blockSize;
+    private final int bins; // of the spectra, blockSize+1
+    private final int partitions;
+    private final RealFFTPlan plan;
+    // Spectra of the partitions, one after the other, for each impulse response
+    private final double[][] responseRe, responseIm;
+    private volatile double mix = 1;
+
+    // One state per channel, allocated in prepare()
+    private double[][] windows = new double[1][]; // the previous block then the block being filled
+    private double[][] outputs = new double[1][]; // output of the last block, played while the next one fills
+    private int[] fills = new int[1]; // samples in the block being filled
+    private double[][] delayRe = new double[1][], delayIm = new double[1][]; // spectra of the last blocks
+    private int[] slots = new int[1]; // position of the last spectrum in the delay line
+    private double[][] sumRe = new double[1][], sumIm = new double[1][];
+    private double[][] blocks = new double[1][]; // inverse FFT of the sum
+
+    /**
+     * @param impulseResponse applied to every channel, at the sample rate of the signal
+     * @param blockSize the partition size, which is also the latency in samples
+     */
+    public ConvolutionEffect(double[] impulseResponse, int blockSize) {
+        this(new double[][]{impulseResponse}, blockSize);
+    }
+
+    /**
+     * @param impulseResponses one per channel; channel c uses impulseResponses[c % impulseResponses.length]
+     * @param blockSize the partition size, which is also the latency in samples
+     */
+    public ConvolutionEffect(double[][] impulseResponses, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
+        if (impulseResponses.length == 0) {
+            throw new IllegalArgumentException("At least one impulse response is needed");
+        }
+        this.blockSize = blockSize;
+        this.bins = blockSize + 1;
+        this.plan = FFT.realPlan(2 * blockSize);
+
+        int length = 1;
+        for (double[] impulseResponse : impulseResponses) {
+            length = Math.max(length, impulseResponse.length);
+        }
+        this.partitions = (length + blockSize - 1) / blockSize;
+
+        responseRe = new double[impulseResponses.length][partitions * bins];
+        responseIm = new double[impulseResponses.length][partitions * bins];
+        double[] padded = new double[2 * blockSize];
+        double[] re = new double[bins], im = new double[bins];
+        for (int r = 0; r < impulseResponses.length; r++) {
+            double[] impulseResponse = impulseResponses[r];
+            for (int p = 0; p < partitions; p++) {
+                // The partition followed by zeros, so that the circular convolution of a window of two
+                // blocks gives the linear one over its second block
+                Arrays.fill(padded, 0);
+                int start = p * blockSize;
+                if (start < impulseResponse.length) {
+                    System.arraycopy(impulseResponse, start, padded, 0, Math.min(blockSize, impulseResponse.length - start));
+                }
+                plan.transform(padded, re, im);
+                System.arraycopy(re, 0, responseRe[r], p * bins, bins);
+                System.arraycopy(im, 0, responseIm[r], p * bins, bins);
+            }
+        }
+    }
+
+    /**
+     * Reads the impulse response from an audio file, one response per channel of the file. It is
+     * used as it is, so it should be recorded at the sample rate of the processed signal.
+     */
+    public static ConvolutionEffect fromFile(File file, int blockSize) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream stream = OfflineProcessor.openDecodable(AudioSystem.getAudioInputStream(file))) {
+            AudioFormat format = stream.getFormat();
+            PCMCodec codec = PCMCodec.forFormat(format);
+            int channels = format.getChannels();
+            byte[] bytes = stream.readAllBytes();
+            int frames = bytes.length / (channels * codec.getBytesPerSample());
+
+            double[][] impulseResponses = new double[channels][frames];
+            codec.decode(bytes, impulseResponses, channels, frames);
+            return new ConvolutionEffect(impulseResponses, blockSize);
+        }
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate) {
+        prepare(maxFrameSize, sampleRate, 1);
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate, int channels) {
+        windows = new double[channels][2 * blockSize];
+        outputs = new double[channels][blockSize];
+        fills = new int[channels];
+        delayRe = new double[channels][partitions * bins];
+        delayIm = new double[channels][partitions * bins];
+        slots = new int[channels];
+        sumRe = new double[channels][bins];
+        sumIm = new double[channels][bins];
+        blocks = new double[channels][2 * blockSize];
+    }
+
+    /** @param mix the part of the convolved signal in the output, between 0 and 1; the rest is the input, late by the same delay */
+    public void setMix(double mix) {
+        this.mix = mix;
+    }
+
+    /** @return the delay of the output in samples, the block size */
+    public int getLatency() {
+        return blockSize;
+    }
+
+    /** @return the number of partitions, each one costs a complex multiply-accumulate per block */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public void process(double[] samples, int length) {
+        process(samples, length, 0);
+    }
+
+    @Override
+    public void process(double[] samples, int length, int channel) {
+        double mix = this.mix;
+        double[] window = windows[channel];
+        double[] output = outputs[channel];
+        Kernels kernels = Kernels.get();
+
+        int fill = fills[channel];
+        for (int i = 0; i < length; ) {
+            int count = Math.min(length - i, blockSize - fill);
+            System.arraycopy(samples, i, window, blockSize + fill, count);
+            // The first half of the window holds the previous block, the input as late as the output
+            kernels.mix(output, fill, mix, window, fill, 1 - mix, samples, i, count);
+            i += count;
+            fill += count;
+            if (fill == blockSize) {
+                convolveBlock(channel, kernels);
+                fill = 0;
+            }
+        }
+        fills[channel] = fill;
+    }
+
+    /** Convolves the window of a full block, and moves the block to the first half of the window. */
+    private void convolveBlock(int channel, Kernels kernels) {
+        double[] window = windows[channel];
+        double[] delayRe = this.delayRe[channel], delayIm = this.delayIm[channel];
+        double[] sumRe = this.sumRe[channel], sumIm = this.sumIm[channel];
+        double[] block = blocks[channel];
+        int response = channel % responseRe.length;
+
+        // The spectrum of the new window replaces the oldest one in the delay line
+        int slot = slots[channel] + 1 == partitions ? 0 : slots[channel] + 1;
+        plan.transform(window, sumRe, sumIm);
+        System.arraycopy(sumRe, 0, delayRe, slot * bins, bins);
+        System.arraycopy(sumIm, 0, delayIm, slot * bins, bins);
+        slots[channel] = slot;
+
+        // Partition p applies to the window of p blocks ago
+        Arrays.fill(sumRe, 0);
+        Arrays.fill(sumIm, 0);
+        for (int p = 0, s = slot; p < partitions; p++, s = s == 0 ? partitions - 1 : s - 1) {
+            kernels.multiplyAdd(delayRe, delayIm, s * bins, responseRe[response], responseIm[response], p * bins,
+                    sumRe, sumIm, bins);
+        }
+        plan.inverse(sumRe, sumIm, block);
+
+        // Only the second half is free of the circular wrap around
+        System.arraycopy(block, blockSize, outputs[channel], 0, blockSize);
+        System.arraycopy(window, blockSize, window, 0, blockSize);
+    }
+}
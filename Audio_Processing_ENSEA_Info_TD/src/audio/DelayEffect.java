@@ -0,0 +1,73 @@
+package audio;
+
+import math.Kernels;
+
+/** An echo: mixes the signal with a delayed copy of the output, fed back into the delay line. */
+public class DelayEffect implements AudioEffect {
+    private final double delaySeconds;
+    private volatile double feedback;
+    private volatile double mix;
+    // One state per channel, allocated in prepare()
+    private double[][] delayLines = new double[1][1]; // circular buffers
+    private int[] positions = new int[1];
+    private double[][] delayed = new double[1][1]; // values read from the delay line for the current segment
+
+    /**
+     * @param delaySeconds the delay between the signal and its echo
+     * @param feedback the part of the echo sent back into the delay line, lower than 1
+     * @param mix the part of the echo in the output, between 0 and 1
+     */
+    public DelayEffect(double delaySeconds, double feedback, double mix) {
+        this.delaySeconds = delaySeconds;
+        this.feedback = feedback;
+        this.mix = mix;
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate) {
+        prepare(maxFrameSize, sampleRate, 1);
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate, int channels) {
+        delayLines = new double[channels][Math.max(1, (int) Math.round(delaySeconds * sampleRate))];
+        positions = new int[channels];
+        delayed = new double[channels][Math.max(1, maxFrameSize)];
+    }
+
+    public void setFeedback(double feedback) {
+        this.feedback = feedback;
+    }
+
+    public void setMix(double mix) {
+        this.mix = mix;
+    }
+
+    @Override
+    public void process(double[] samples, int length) {
+        process(samples, length, 0);
+    }
+
+    @Override
+    public void process(double[] samples, int length, int channel) {
+        double feedback = this.feedback;
+        double mix = this.mix;
+        double[] delayLine = delayLines[channel];
+        double[] delayed = this.delayed[channel];
+        Kernels kernels = Kernels.get();
+
+        // In segments that neither wrap around the delay line nor read a value written in the same
+        // segment, so that each one is two vectorizable mixes
+        int position = positions[channel];
+        for (int i = 0; i < length; ) {
+            int count = Math.min(Math.min(length - i, delayLine.length - position), delayed.length);
+            System.arraycopy(delayLine, position, delayed, 0, count);
+            kernels.mix(samples, i, 1, delayed, 0, feedback, delayLine, position, count);
+            kernels.mix(samples, i, 1 - mix, delayed, 0, mix, samples, i, count);
+            i += count;
+            position += count;
+            if (position == delayLine.length) position = 0;
+        }
+        positions[channel] = position;
+    }
+}
@@ -0,0 +1,250 @@
+package audio;
+
+/**
+ * An ordered list of AudioEffect run one after the other on each frame. The list can be replaced
+ * and each stage bypassed while the audio thread is running: the new list is prepared by the
+ * calling thread and handed over with a single volatile write, so the audio thread never waits
+ * nor allocates. The time spent in each stage is measured, to see which effect uses the frame budget.
+ * The channels of a signal are processed one after the other, or in parallel by helper threads
+ * when there are at least PARALLEL_CHANNELS of them and several cores.
+ * To prepare the effects for a new configuration while the audio thread runs, the audio thread
+ * suspends the chain between two frames, another thread prepares it, then resumes it.
+ */
+public class EffectChain {
+    /** The number of channels from which they are processed in parallel. */
+    public static final int PARALLEL_CHANNELS = 4;
+
+    private volatile Stage[] stages = new Stage[0];
+    private volatile boolean isSuspended; // the effects are skipped while they are prepared again
+    private int maxFrameSize;
+    private float sampleRate;
+    private int channels = 1;
+    private ChannelWorkers workers; // null when the channels are processed by the audio thread alone
+
+    // The frame being processed in parallel, set by the audio thread before waking the workers
+    private double[][] frameChannels;
+    private int frameLength;
+    private Stage[] frameStages;
+    private final ChannelWorkers.Task channelTask = this::processChannels;
+
+    /**
+     * @param maxFrameSize the largest frame the chain will process
+     * @param sampleRate the sample rate of the processed signal
+     */
+    public EffectChain(int maxFrameSize, float sampleRate) {
+        this.maxFrameSize = maxFrameSize;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Replaces the effects of the chain. The effects are prepared before the audio thread sees them,
+     * so they must be fresh instances: an effect of the current list may be in use by the audio thread.
+     * Must not be called from the audio thread.
+     * @throws IllegalArgumentException if an effect is already in the chain, or given twice
+     */
+    public synchronized void setEffects(AudioEffect... effects) {
+        for (int i = 0; i < effects.length; i++) {
+            for (Stage stage : stages) {
+                if (stage.effect == effects[i]) {
+                    throw new IllegalArgumentException("The effect " + effects[i] + " is already in the chain");
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                if (effects[j] == effects[i]) {
+                    throw new IllegalArgumentException("The effect " + effects[i] + " is given twice");
+                }
+            }
+        }
+
+        Stage[] newStages = new Stage[effects.length];
+        for (int i = 0; i < effects.length; i++) {
+            effects[i].prepare(maxFrameSize, sampleRate, channels);
+            newStages[i] = new Stage(effects[i]);
+        }
+        stages = newStages;
+    }
+
+    /**
+     * Prepares every effect again for a new configuration. The chain must not be running.
+     */
+    public synchronized void prepare(int maxFrameSize, float sampleRate) {
+        prepare(maxFrameSize, sampleRate, channels);
+    }
+
+    /**
+     * Prepares every effect again for a new configuration, with a number of channels.
+     * The chain must not be running.
+     */
+    public synchronized void prepare(int maxFrameSize, float sampleRate, int channels) {
+        this.maxFrameSize = maxFrameSize;
+        this.sampleRate = sampleRate;
+        if (channels != this.channels) {
+            setChannels(channels);
+        }
+        for (Stage stage : stages) {
+            stage.effect.prepare(maxFrameSize, sampleRate, channels);
+        }
+    }
+
+    private void setChannels(int channels) {
+        this.channels = channels;
+        if (workers != null) {
+            workers.stop();
+            workers = null;
+        }
+        int threads = Math.min(channels, Runtime.getRuntime().availableProcessors());
+        if (channels >= PARALLEL_CHANNELS && threads > 1) {
+            workers = new ChannelWorkers(channels, threads);
+        }
+    }
+
+    /**
+     * Skips the effects from the next frame on, until resume(). Called by the audio thread between
+     * two frames, so that once it returns the effects may be prepared again by another thread.
+     */
+    void suspend() {
+        isSuspended = true;
+    }
+
+    /** Runs the effects again after suspend(). The volatile write publishes what prepare() allocated. */
+    void resume() {
+        isSuspended = false;
+    }
+
+    /** @return true while the effects are skipped, between suspend() and resume() */
+    public boolean isSuspended() {
+        return isSuspended;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /** @return the largest frame the effects are prepared for */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /** @return the stages, in processing order */
+    public Stage[] getStages() {
+        return stages.clone();
+    }
+
+    public boolean isEmpty() {
+        return stages.length == 0;
+    }
+
+    /**
+     * Runs every effect that is not bypassed on the first length values of samples, in place.
+     * The samples are those of channel 0.
+     */
+    public void process(double[] samples, int length) {
+        if (isSuspended) {
+            return;
+        }
+        Stage[] stages = this.stages; // the same list for the whole frame
+        long start = System.nanoTime();
+        for (Stage stage : stages) {
+            if (!stage.bypassed) {
+                stage.effect.process(samples, length, 0);
+            }
+            long end = System.nanoTime();
+            stage.record(end - start);
+            start = end;
+        }
+    }
+
+    /**
+     * Runs every effect that is not bypassed on the first length values of each channel, in place.
+     * @param channels one array per channel, as many as given to prepare()
+     */
+    public void process(double[][] channels, int length) {
+        if (isSuspended) {
+            return;
+        }
+        if (this.channels == 1) {
+            process(channels[0], length);
+            return;
+        }
+
+        frameStages = this.stages; // the same list for the whole frame
+        frameChannels = channels;
+        frameLength = length;
+        if (workers != null) {
+            workers.run(channelTask);
+        } else {
+            processChannels(0, this.channels, true);
+        }
+    }
+
+    /**
+     * Processes channels first to last-1 of the current frame. Only the audio thread records the
+     * timings, which are then those of its own channels.
+     */
+    private void processChannels(int first, int last, boolean isCaller) {
+        long start = System.nanoTime();
+        for (Stage stage : frameStages) {
+            if (!stage.bypassed) {
+                for (int c = first; c < last; c++) {
+                    stage.effect.process(frameChannels[c], frameLength, c);
+                }
+            }
+            if (isCaller) {
+                long end = System.nanoTime();
+                stage.record(end - start);
+                start = end;
+            }
+        }
+    }
+
+    /** One effect of the chain, with its bypass switch and its timings. */
+    public static final class Stage {
+        private final AudioEffect effect;
+        private volatile boolean bypassed;
+        private volatile long lastNanos, maxNanos, totalNanos, frames;
+
+        private Stage(AudioEffect effect) {
+            this.effect = effect;
+        }
+
+        // Only called by the audio thread
+        private void record(long nanos) {
+            lastNanos = nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+            totalNanos += nanos;
+            frames++;
+        }
+
+        public AudioEffect getEffect() {
+            return effect;
+        }
+
+        public boolean isBypassed() {
+            return bypassed;
+        }
+
+        public void setBypassed(boolean bypassed) {
+            this.bypassed = bypassed;
+        }
+
+        /** @return the time spent in the effect for the last frame, in nanoseconds */
+        public long getLastNanos() {
+            return lastNanos;
+        }
+
+        /** @return the longest time spent in the effect for one frame, in nanoseconds */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /** @return the average time spent in the effect per frame, in nanoseconds */
+        public double getAverageNanos() {
+            long frames = this.frames;
+            return frames == 0 ? 0 : (double) totalNanos / frames;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package audio;
+
+import math.FloatFFT;
+
+import javax.sound.sampled.*;
+import java.util.Arrays;
+
+/**
+ * Single precision version of the recording side of AudioSignal: the samples are kept in a float[],
+ * which halves the memory traffic of the decoding, level and FFT loops and lets frames twice as long
+ * stay in the caches. Meant for capture and analysis; the effects work on AudioSignal. An AudioProcessor
+ * built with Precision.FLOAT records its mono input through one, then widens it with AudioSignal.widenFrom().
+ */
+public class FloatAudioSignal {
+
+    private float[] sampleBuffer; // floating point representation of audio samples
+    private int frameSize; // samples in the frame, at most the length of sampleBuffer
+    private double dBlevel; // current signal level
+    private final FrameExchange frames; // frames published to other threads
+    private double[] publishBuffer; // samples widened to double for the FrameExchange
+
+    // PCM conversion state, only resolved again when the line changes
+    private byte[] byteBuffer;
+    private DataLine codecLine;
+    private PCMCodec codec;
+
+    /** @param frameSize the number of samples in one audio frame */
+    public FloatAudioSignal(int frameSize) {
+        sampleBuffer = new float[frameSize];
+        this.frameSize = frameSize;
+        publishBuffer = new double[frameSize];
+        byteBuffer = new byte[2 * frameSize];
+        frames = new FrameExchange(frameSize);
+    }
+
+    /** Fills the buffer content from the given input, see AudioSignal.recordFrom().
+     * @return false if at end of stream */
+    public boolean recordFrom(TargetDataLine audioInput) {
+        PCMCodec codec = codecFor(audioInput);
+        if (audioInput.read(byteBuffer, 0, frameSize * codec.getBytesPerSample()) == -1) return false;
+
+        codec.decode(byteBuffer, sampleBuffer, frameSize);
+        updateLevel();
+        return true;
+    }
+
+    /** Fills the frame with count samples decoded from bytes, and silence after them. */
+    void decode(PCMCodec codec, byte[] bytes, int count) {
+        codec.decode(bytes, sampleBuffer, count);
+        Arrays.fill(sampleBuffer, count, frameSize, 0f);
+        updateLevel();
+    }
+
+    /** Writes the buffer content to an output that is already started. */
+    public void playTo(SourceDataLine audioOutput) {
+        PCMCodec codec = codecFor(audioOutput);
+        codec.encode(sampleBuffer, byteBuffer, frameSize);
+        audioOutput.write(byteBuffer, 0, frameSize * codec.getBytesPerSample());
+    }
+
+    /** Resolves the codec of a line and sizes the conversion buffer for it, before the line is used. */
+    void prepareFor(DataLine line) {
+        codecFor(line);
+    }
+
+    /** Resolves the codec of a line the first time it is used, and sizes byteBuffer for it. */
+    private PCMCodec codecFor(DataLine line) {
+        if (line != codecLine) {
+            if (line.getFormat().getChannels() != 1) {
+                throw new RuntimeException("FloatAudioSignal is mono, the line has " + line.getFormat().getChannels() + " channels");
+            }
+            codec = PCMCodec.forFormat(line.getFormat());
+            codecLine = line;
+        }
+        int byteCount = sampleBuffer.length * codec.getBytesPerSample();
+        if (byteBuffer.length < byteCount) {
+            byteBuffer = new byte[byteCount];
+        }
+        return codec;
+    }
+
+    /** Computes the level of the current buffer content again, after it has been modified. */
+    public void updateLevel() {
+        this.dBlevel = levelIndB(sampleBuffer, frameSize);
+    }
+
+    /** Computes the level of the first length samples, see AudioSignal.levelIndB(). The sum is kept in
+     * double so that long frames do not lose precision. */
+    public static double levelIndB(float[] samples, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            float sample = samples[i];
+            sum += sample * sample;
+        }
+        return 20 * Math.log10(Math.sqrt(sum / length));
+    }
+
+    /**
+     * Computes the magnitudes of bins 0 to N/2 of the current frame, N being the frame size, which must be even.
+     * @param re work buffer of at least N/2+1 values, receives the real part of the spectrum
+     * @param im work buffer of at least N/2+1 values, receives the imaginary part of the spectrum
+     * @param magnitudes receives the magnitudes, at least N/2+1 values
+     */
+    public void computeMagnitudes(float[] re, float[] im, float[] magnitudes) {
+        FloatFFT.realPlan(frameSize).transform(sampleBuffer, re, im);
+        for (int k = 0; k <= frameSize / 2; k++) {
+            magnitudes[k] = (float) Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+        }
+    }
+
+    /** Makes a copy of the current frame available to the readers of getFrames(), widened to double.
+     * @return the sequence number of the published frame */
+    public long publish() {
+        for (int i = 0; i < frameSize; i++) {
+            publishBuffer[i] = sampleBuffer[i];
+        }
+        return frames.publish(publishBuffer, frameSize, dBlevel);
+    }
+
+    public FrameExchange getFrames() {
+        return frames;
+    }
+
+    public float[] getSampleBuffer() {
+        return sampleBuffer;
+    }
+
+    public double getdBlevel() {
+        return dBlevel;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** Changes the number of samples in a frame, the buffers are reallocated only if they are too short. */
+    public void setFrameSize(int frameSize) {
+        if (frameSize > sampleBuffer.length) {
+            sampleBuffer = new float[frameSize];
+            publishBuffer = new double[frameSize];
+            frames.reserve(frameSize);
+        }
+        this.frameSize = frameSize;
+    }
+
+    /** @return the largest frame the buffers hold without being reallocated */
+    public int getCapacity() {
+        return sampleBuffer.length;
+    }
+}
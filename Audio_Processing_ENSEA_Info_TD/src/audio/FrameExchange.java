@@ -0,0 +1,213 @@
+package audio;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands audio frames from the audio thread to any number of readers (typically the UI widgets)
+ * without locking. The audio thread copies each frame into a ring of preallocated slots and never
+ * waits; a reader copies the latest complete frame into its own {@link Frame}, and simply tries
+ * again in the rare case where the slot was overwritten while it was being copied.
+ * Readers that need every frame rather than the latest one can ask for frames by sequence number,
+ * as long as they do not fall more than the number of slots behind.
+ */
+public class FrameExchange {
+    private static final int DEFAULT_SLOTS = 4;
+
+    private final Slot[] slots;
+    private final AtomicLong latest = new AtomicLong(); // sequence number of the last complete frame
+
+    /** @param frameSize the initial capacity of the slots, they grow if bigger frames are published */
+    public FrameExchange(int frameSize) {
+        this(frameSize, DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param frameSize the initial capacity of the slots, they grow if bigger frames are published
+     * @param slots the number of frames kept, i.e. how far behind a reader may be
+     */
+    public FrameExchange(int frameSize, int slots) {
+        this.slots = new Slot[slots];
+        for (int i = 0; i < slots; i++) {
+            this.slots[i] = new Slot(frameSize);
+        }
+    }
+
+    /**
+     * Grows the slots so that frames of up to capacity samples are published without allocating.
+     * Must be called by the thread that publishes, or while nothing is published.
+     */
+    public void reserve(int capacity) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].samples.length < capacity) {
+                // Same as in publish(), readers of the old slot are not disturbed
+                slots[i] = new Slot(capacity);
+            }
+        }
+    }
+
+    /**
+     * Takes the slots of another exchange that are larger than these ones, so that the publishing
+     * thread grows its slots without allocating: the other exchange is allocated beforehand by any
+     * thread. The content of a replaced slot is copied into the new one first, so readers are not
+     * disturbed. Must be called by the thread that publishes; the other exchange must not be used afterwards.
+     */
+    void adoptSlots(FrameExchange prepared) {
+        for (int i = 0; i < slots.length && i < prepared.slots.length; i++) {
+            Slot slot = slots[i];
+            Slot larger = prepared.slots[i];
+            if (larger.samples.length > slot.samples.length) {
+                System.arraycopy(slot.samples, 0, larger.samples, 0, slot.length);
+                larger.length = slot.length;
+                larger.dBlevel = slot.dBlevel;
+                larger.timestamp = slot.timestamp;
+                larger.stamp = slot.stamp;
+                // Complete before readers can find it
+                VarHandle.storeStoreFence();
+                slots[i] = larger;
+            }
+        }
+    }
+
+    /**
+     * Publishes a copy of a frame. Must only be called by one thread, the audio thread.
+     * Nothing is allocated unless the frame is bigger than any previous one.
+     * @return the sequence number given to this frame, starting at 1
+     */
+    public long publish(double[] samples, int length, double dBlevel) {
+        return publish(samples, length, dBlevel, 0);
+    }
+
+    /**
+     * Publishes a copy of a frame along with a timestamp, whose meaning is up to the publisher.
+     * @see #publish(double[], int, double)
+     */
+    public long publish(double[] samples, int length, double dBlevel, long timestamp) {
+        long sequence = latest.get() + 1;
+        int index = (int) (sequence % slots.length);
+        Slot slot = slots[index];
+
+        if (slot.samples.length < length) {
+            // Frame size increased: give the slot a bigger buffer, readers of the old one are not disturbed
+            slot = new Slot(length);
+            slots[index] = slot;
+        }
+
+        // An odd stamp tells readers that the slot is being written
+        slot.stamp = 2 * sequence - 1;
+        VarHandle.storeStoreFence();
+
+        System.arraycopy(samples, 0, slot.samples, 0, length);
+        slot.length = length;
+        slot.dBlevel = dBlevel;
+        slot.timestamp = timestamp;
+
+        slot.stamp = 2 * sequence;
+        latest.set(sequence);
+        return sequence;
+    }
+
+    /** @return the sequence number of the last published frame, 0 if there is none yet */
+    public long latestSequence() {
+        return latest.get();
+    }
+
+    /**
+     * Copies the last published frame into the given frame, if it is not already there.
+     * @param frame a frame owned by the caller, its buffer grows if needed
+     * @return the sequence number of the frame, 0 if nothing has been published yet
+     */
+    public long readLatest(Frame frame) {
+        while (true) {
+            long sequence = latest.get();
+            if (sequence == 0 || sequence == frame.sequence) {
+                return sequence;
+            }
+            if (copy(sequence, frame)) {
+                return sequence;
+            }
+            // already being overwritten by a newer frame, try again
+        }
+    }
+
+    /**
+     * Copies the frame of the given sequence number into the given frame.
+     * @return false if that frame has not been published yet, or has already been overwritten
+     */
+    public boolean read(long sequence, Frame frame) {
+        if (sequence < 1 || sequence > latest.get()) {
+            return false;
+        }
+        return copy(sequence, frame);
+    }
+
+    private boolean copy(long sequence, Frame frame) {
+        Slot slot = slots[(int) (sequence % slots.length)];
+        long stamp = slot.stamp;
+        if (stamp != 2 * sequence) {
+            return false;
+        }
+
+        int length = slot.length;
+        if (frame.samples.length < length) {
+            frame.samples = new double[length];
+        }
+        System.arraycopy(slot.samples, 0, frame.samples, 0, Math.min(length, slot.samples.length));
+        double dBlevel = slot.dBlevel;
+        long timestamp = slot.timestamp;
+
+        VarHandle.loadLoadFence();
+        if (slot.stamp != stamp) {
+            return false;
+        }
+        frame.length = length;
+        frame.dBlevel = dBlevel;
+        frame.timestamp = timestamp;
+        frame.sequence = sequence;
+        return true;
+    }
+
+    /** A frame as seen by a reader. */
+    public static final class Frame {
+        private double[] samples = new double[0];
+        private int length;
+        private double dBlevel;
+        private long timestamp;
+        private long sequence;
+
+        /** @return the samples, only the first getLength() values belong to the frame */
+        public double[] getSamples() {
+            return samples;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public double getdBlevel() {
+            return dBlevel;
+        }
+
+        /** @return the timestamp given by the publisher, 0 if none */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /** @return the sequence number of the frame, 0 if no frame has been read yet */
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    private static final class Slot {
+        final double[] samples;
+        int length;
+        double dBlevel;
+        long timestamp;
+        volatile long stamp;
+
+        Slot(int capacity) {
+            samples = new double[capacity];
+        }
+    }
+}
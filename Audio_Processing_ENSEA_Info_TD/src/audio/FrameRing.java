@@ -0,0 +1,75 @@
+package audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of preallocated AudioSignal frames between exactly one producer thread and one
+ * consumer thread. Frames are never allocated nor handed over: the producer fills the slot given by
+ * claim() then calls commit(), the consumer reads the slot given by peek() then calls release().
+ * No method ever blocks, they return null when the queue is full or empty.
+ */
+public class FrameRing {
+    private final AudioSignal[] slots;
+    private final AtomicLong head = new AtomicLong(); // next slot to read, written by the consumer only
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, written by the producer only
+
+    /**
+     * @param capacity the number of frames the queue can hold
+     * @param frameSize the number of samples of each frame
+     */
+    public FrameRing(int capacity, int frameSize) {
+        this(capacity, frameSize, 1);
+    }
+
+    /**
+     * @param capacity the number of frames the queue can hold
+     * @param frameSize the number of samples of each channel of a frame
+     * @param channels the number of channels of each frame
+     */
+    public FrameRing(int capacity, int frameSize, int channels) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        slots = new AudioSignal[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new AudioSignal(frameSize, channels);
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** @return the number of frames waiting to be read */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** Producer side. @return the slot to fill, or null if the queue is full */
+    public AudioSignal claim() {
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return null;
+        }
+        return slots[(int) (t % slots.length)];
+    }
+
+    /** Producer side. Makes the slot returned by claim() available to the consumer. */
+    public void commit() {
+        tail.setRelease(tail.get() + 1);
+    }
+
+    /** Consumer side. @return the oldest frame, or null if the queue is empty */
+    public AudioSignal peek() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        return slots[(int) (h % slots.length)];
+    }
+
+    /** Consumer side. Gives the slot returned by peek() back to the producer. */
+    public void release() {
+        head.setRelease(head.get() + 1);
+    }
+}
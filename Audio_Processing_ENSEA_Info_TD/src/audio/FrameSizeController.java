@@ -0,0 +1,150 @@
+package audio;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the frame size of a running AudioProcessor from its metrics, so that the smallest size
+ * that does not glitch is found on each machine instead of by trial and error. Once per window
+ * (a second by default), the size goes one step up as soon as the window had a late frame or more
+ * xruns than the target rate, and one step down when the latency is above the target, the last
+ * windows were clean and the processing leaves enough headroom. A size that glitched is only tried
+ * again after twice as many clean windows as the previous time (hysteresis), so the size does not
+ * oscillate around the limit of the machine.
+ * The sizes come from a fixed list, for which the AudioProcessor reserves its buffers beforehand:
+ * changing the size allocates nothing. The lines are opened once with buffers of lineBufferFrames
+ * frames of the largest size, so they are never opened again when the size changes.
+ */
+public class FrameSizeController {
+    /** Powers of two from 64 to 4096 samples. */
+    public static final int[] DEFAULT_FRAME_SIZES = {64, 128, 256, 512, 1024, 2048, 4096};
+
+    private static final int MIN_HOLD_WINDOWS = 2;
+    private static final int MAX_HOLD_WINDOWS = 64;
+    private static final double MAX_LOAD = 0.5; // largest share of a frame duration spent processing before going down
+
+    private final int[] frameSizes;
+    private final double targetLatencySeconds;
+    private final double maxXrunsPerMinute;
+    private final long windowNanos;
+    private final int lineBufferFrames;
+
+    private int index; // of the current frame size
+    private int holdWindows = MIN_HOLD_WINDOWS; // clean windows needed before going down
+    private int cleanWindows; // clean windows in a row at the current size
+    private boolean wentDown; // the last change made the frame smaller
+
+    // Since the start of the current window, or since the last change for the xrun rate
+    private long windowStart, changeTime;
+    private long windowXruns, windowLateFrames, changeXruns;
+    private long maxProcessNanos;
+
+    /**
+     * Uses the default frame sizes, one second windows and line buffers of 4 frames.
+     * @param initialFrameSize the first size, or the next larger one in the list
+     * @param targetLatencySeconds the round-trip latency to stay under
+     * @param maxXrunsPerMinute the xrun rate above which the frame size goes up
+     */
+    public FrameSizeController(int initialFrameSize, double targetLatencySeconds, double maxXrunsPerMinute) {
+        this(DEFAULT_FRAME_SIZES, initialFrameSize, targetLatencySeconds, maxXrunsPerMinute, 1.0, 4);
+    }
+
+    /**
+     * @param frameSizes the sizes to choose from
+     * @param initialFrameSize the first size, or the next larger one in the list
+     * @param targetLatencySeconds the round-trip latency to stay under
+     * @param maxXrunsPerMinute the xrun rate above which the frame size goes up
+     * @param windowSeconds how long the metrics are observed between two decisions
+     * @param lineBufferFrames the size of the line buffers, in frames of the largest size
+     */
+    public FrameSizeController(int[] frameSizes, int initialFrameSize, double targetLatencySeconds,
+                               double maxXrunsPerMinute, double windowSeconds, int lineBufferFrames) {
+        if (frameSizes.length == 0) {
+            throw new IllegalArgumentException("At least one frame size is needed");
+        }
+        this.frameSizes = frameSizes.clone();
+        Arrays.sort(this.frameSizes);
+        this.targetLatencySeconds = targetLatencySeconds;
+        this.maxXrunsPerMinute = maxXrunsPerMinute;
+        this.windowNanos = (long) (windowSeconds * 1e9);
+        this.lineBufferFrames = lineBufferFrames;
+
+        while (index < this.frameSizes.length - 1 && this.frameSizes[index] < initialFrameSize) {
+            index++;
+        }
+    }
+
+    public int getFrameSize() {
+        return frameSizes[index];
+    }
+
+    /** @return the largest size the controller may choose, for which buffers are reserved */
+    public int getMaxFrameSize() {
+        return frameSizes[frameSizes.length - 1];
+    }
+
+    /** @return the size in bytes of the line buffers, which hold lineBufferFrames frames of the largest size */
+    public int getLineBufferSize(int bytesPerFrame) {
+        return lineBufferFrames * getMaxFrameSize() * bytesPerFrame;
+    }
+
+    /**
+     * Called by the audio thread after each frame. Allocates nothing.
+     * @param processNanos the time spent processing the frame
+     * @param now the System.nanoTime() at the end of the frame
+     * @return true if the frame size has changed, to be applied before the next frame
+     */
+    public boolean update(AudioMetrics metrics, long processNanos, long now) {
+        if (processNanos > maxProcessNanos) maxProcessNanos = processNanos;
+        if (windowStart == 0) {
+            startWindow(metrics, now);
+            changeTime = now;
+            changeXruns = windowXruns;
+            return false;
+        }
+        if (now - windowStart < windowNanos) {
+            return false;
+        }
+
+        long xruns = metrics.getXruns();
+        boolean hadXruns = xruns > windowXruns;
+        double minutesAtSize = (now - changeTime) / 60e9;
+        boolean isGlitching = metrics.getLateFrames() > windowLateFrames
+                || (hadXruns && (xruns - changeXruns) / minutesAtSize > maxXrunsPerMinute);
+        double load = (double) maxProcessNanos / metrics.getFrameNanos();
+
+        int previous = index;
+        if (isGlitching) {
+            if (wentDown) {
+                // The smaller size did not hold, wait longer before trying it again
+                holdWindows = Math.min(MAX_HOLD_WINDOWS, 2 * holdWindows);
+            }
+            if (index < frameSizes.length - 1) index++;
+            cleanWindows = 0;
+            wentDown = false;
+        } else {
+            cleanWindows++;
+            if (cleanWindows >= holdWindows) wentDown = false; // the size holds
+            if (index > 0 && cleanWindows >= holdWindows && load < MAX_LOAD
+                    && metrics.getLatencySeconds() > targetLatencySeconds) {
+                index--;
+                cleanWindows = 0;
+                wentDown = true;
+            }
+        }
+
+        startWindow(metrics, now);
+        if (index != previous) {
+            changeTime = now;
+            changeXruns = windowXruns;
+            return true;
+        }
+        return false;
+    }
+
+    private void startWindow(AudioMetrics metrics, long now) {
+        windowStart = now;
+        windowXruns = metrics.getXruns();
+        windowLateFrames = metrics.getLateFrames();
+        maxProcessNanos = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package audio;
+
+import math.Kernels;
+
+/** Multiplies the signal by a constant gain. */
+public class GainEffect implements AudioEffect {
+    private volatile double gain;
+
+    /** @param gainIndB the gain in dB, 0 leaves the signal unchanged */
+    public GainEffect(double gainIndB) {
+        setGainIndB(gainIndB);
+    }
+
+    public void setGainIndB(double gainIndB) {
+        this.gain = Math.pow(10, gainIndB / 20);
+    }
+
+    public double getGainIndB() {
+        return 20 * Math.log10(gain);
+    }
+
+    @Override
+    public void process(double[] samples, int length) {
+        Kernels.get().scale(samples, length, gain);
+    }
+}
@@ -0,0 +1,122 @@
+package audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in nanoseconds, recorded without locking nor allocating, so that the
+ * audio thread can feed it every frame while the UI reads it. Each power of two is split into four
+ * buckets, which keeps the percentiles within 25% of the true value from 1 ns to over a minute.
+ * Readers take a {@link Snapshot}, and the difference of two snapshots gives the distribution over
+ * the time between them.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4; // buckets per power of two
+    private static final int BUCKETS = 160; // up to 2^40 ns, about 18 minutes
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** Adds a duration. May be called by several threads at once. */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0; // nanoTime() is monotonic, but a caller may subtract in the wrong order
+        counts.incrementAndGet(bucketOf(nanos));
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        // Counted last, so that a snapshot never sees more values than the buckets hold
+        count.incrementAndGet();
+    }
+
+    /** @return a copy of the current distribution */
+    public Snapshot snapshot() {
+        long count = this.count.get();
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, count, totalNanos.get(), maxNanos.get());
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos); // at least 2
+        int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, SUB_BUCKETS * (exponent - 1) + sub);
+    }
+
+    /** @return the largest duration that falls into the bucket */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+    }
+
+    /** An immutable copy of a LatencyHistogram. */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return the durations recorded since an earlier snapshot of the same histogram. The
+         * maximum is then the upper bound of the highest non-empty bucket.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[BUCKETS];
+            int highest = -1;
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+                if (difference[i] > 0) highest = i;
+            }
+            long max = highest < 0 ? 0 : Math.min(maxNanos, upperBoundOf(highest));
+            return new Snapshot(difference, count - earlier.count, totalNanos - earlier.totalNanos, max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return a duration that at least this percentage of the recorded durations do not exceed,
+         * 0 if nothing has been recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(maxNanos, upperBoundOf(i));
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
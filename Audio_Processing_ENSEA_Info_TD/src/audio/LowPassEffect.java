@@ -0,0 +1,53 @@
+package audio;
+
+/** A first order low-pass filter, y[n] = y[n-1] + a * (x[n] - y[n-1]). */
+public class LowPassEffect implements AudioEffect {
+    private volatile double cutoffFrequency;
+    private volatile double a;
+    private float sampleRate;
+    private double[] previous = new double[1]; // y[n-1] of each channel, kept from one frame to the next
+
+    /** @param cutoffFrequency the -3dB frequency in Hz */
+    public LowPassEffect(double cutoffFrequency) {
+        this.cutoffFrequency = cutoffFrequency;
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate) {
+        prepare(maxFrameSize, sampleRate, 1);
+    }
+
+    @Override
+    public void prepare(int maxFrameSize, float sampleRate, int channels) {
+        this.sampleRate = sampleRate;
+        setCutoffFrequency(cutoffFrequency);
+        previous = new double[channels];
+    }
+
+    public void setCutoffFrequency(double cutoffFrequency) {
+        this.cutoffFrequency = cutoffFrequency;
+        if (sampleRate > 0) {
+            this.a = 1 - Math.exp(-2 * Math.PI * cutoffFrequency / sampleRate);
+        }
+    }
+
+    public double getCutoffFrequency() {
+        return cutoffFrequency;
+    }
+
+    @Override
+    public void process(double[] samples, int length) {
+        process(samples, length, 0);
+    }
+
+    @Override
+    public void process(double[] samples, int length, int channel) {
+        double a = this.a;
+        double y = previous[channel];
+        for (int i = 0; i < length; i++) {
+            y += a * (samples[i] - y);
+            samples[i] = y;
+        }
+        previous[channel] = y;
+    }
+}
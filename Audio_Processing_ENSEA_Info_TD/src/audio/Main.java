@@ -1,15 +1,169 @@
 package audio;
 
+import math.Precision;
+
 import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
 
+    private static final String USAGE = "Usage: java audio.Main input.wav output.wav [options]\n"
+            + "       java audio.Main --batch outputDirectory input.wav... [--threads n] [options]\n"
+            + "Options: [--block samples] [--float] [--gain dB] [--lowpass Hz] [--delay seconds] [--convolve impulseResponse.wav]\n"
+            + "         [--eq dB,dB,...] [--crossover Hz[:low|:high]]";
 
+    /**
+     * Without arguments, runs the AudioSignal test. Otherwise processes files offline, without a window:
+     * <pre>
+     * java audio.Main input.wav output.wav [options]
+     * java audio.Main --batch outputDirectory input.wav... [--threads n] [options]
+     * </pre>
+     * with the options [--block samples] [--float] [--gain dB] [--lowpass Hz] [--delay seconds] [--convolve impulseResponse.wav]
+     * [--eq dB,dB,...] [--crossover Hz[:low|:high]].
+     * --float decodes mono files in single precision (see OfflineProcessor), the effects stay in double.
+     * --eq gives the gains of the octave equalizer from 31 Hz up, the missing bands stay at 0 dB.
+     * --crossover keeps the low (by default) or high branch of a Linkwitz-Riley crossover.
+     */
     public static void main(String[] args) {
+        if (args.length == 0) {
+            try {
+                AudioSignal.main(args);
+            } catch (LineUnavailableException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        List<File> files = new ArrayList<>();
+        File batchDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int blockSize = OfflineProcessor.DEFAULT_BLOCK_SIZE;
+        Precision precision = Precision.DOUBLE;
+        List<String> effectOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                files.add(new File(args[i]));
+                continue;
+            }
+            if (args[i].equals("--float")) {
+                precision = Precision.FLOAT;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                System.out.println(USAGE);
+                System.exit(1);
+            }
+            switch (args[i]) {
+                case "--batch": batchDirectory = new File(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--block": blockSize = Integer.parseInt(args[++i]); break;
+                case "--gain": case "--lowpass": case "--delay": case "--convolve": case "--eq": case "--crossover":
+                    effectOptions.add(args[i]);
+                    effectOptions.add(args[++i]);
+                    break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (batchDirectory != null) {
+            runBatch(files, batchDirectory, threads, blockSize, precision, effectOptions);
+            return;
+        }
+        if (files.size() != 2) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        OfflineProcessor offlineProcessor = new OfflineProcessor(blockSize, precision);
+        offlineProcessor.getAudioProcessor().getEffectChain().setEffects(createEffects(effectOptions, blockSize));
+
         try {
-            AudioSignal.main(args);
-        } catch (LineUnavailableException e) {
+            System.out.println(offlineProcessor.process(files.get(0), files.get(1)));
+        } catch (IOException | UnsupportedAudioFileException e) {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    private static void runBatch(List<File> inputs, File outputDirectory, int threads, int blockSize, Precision precision,
+                                 List<String> effectOptions) {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new RuntimeException("Cannot create " + outputDirectory);
+        }
+
+        long start = System.nanoTime();
+        List<BatchProcessor.Outcome> outcomes;
+        // Each worker gets its own effects, their state must not be shared
+        try (BatchProcessor batchProcessor = new BatchProcessor(threads, blockSize, precision,
+                audioProcessor -> audioProcessor.getEffectChain().setEffects(createEffects(effectOptions, blockSize)))) {
+            outcomes = batchProcessor.process(inputs, outputDirectory);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        double audioSeconds = 0;
+        int failures = 0;
+        for (BatchProcessor.Outcome outcome : outcomes) {
+            System.out.println(outcome);
+            if (outcome.isSuccess()) {
+                audioSeconds += outcome.getResult().getAudioSeconds();
+            } else {
+                failures++;
+            }
+        }
+        System.out.printf("%d files (%d failed), %.2f s of audio in %.3f s on %d threads (%.1fx real time)%n",
+                outcomes.size(), failures, audioSeconds, seconds, threads, audioSeconds / seconds);
+    }
+
+    /**
+     * @param options pairs of an effect option and its value
+     * @param blockSize the block size of the processing, also used as the partition size of the convolutions
+     */
+    private static AudioEffect[] createEffects(List<String> options, int blockSize) {
+        AudioEffect[] effects = new AudioEffect[options.size() / 2];
+        for (int i = 0; i < effects.length; i++) {
+            String value = options.get(2 * i + 1);
+            switch (options.get(2 * i)) {
+                case "--gain": effects[i] = new GainEffect(Double.parseDouble(value)); break;
+                case "--lowpass": effects[i] = new LowPassEffect(Double.parseDouble(value)); break;
+                case "--convolve":
+                    try {
+                        effects[i] = ConvolutionEffect.fromFile(new File(value), blockSize);
+                    } catch (IOException | UnsupportedAudioFileException e) {
+                        throw new RuntimeException("Cannot read the impulse response " + value, e);
+                    }
+                    break;
+                case "--eq": effects[i] = createEqualizer(value); break;
+                case "--crossover": effects[i] = createCrossover(value); break;
+                default: effects[i] = new DelayEffect(Double.parseDouble(value), 0.4, 0.3); break;
+            }
+        }
+        return effects;
+    }
+
+    /** @param gains the gains in dB of the octave bands separated by commas, from the lowest band */
+    private static BiquadEffect createEqualizer(String gains) {
+        BiquadEffect equalizer = BiquadEffect.octaveEqualizer();
+        String[] values = gains.split(",");
+        if (values.length > equalizer.getSections()) {
+            throw new IllegalArgumentException("The equalizer has " + equalizer.getSections() + " bands, not " + values.length);
+        }
+        for (int band = 0; band < values.length; band++) {
+            equalizer.setGainIndB(band, Double.parseDouble(values[band].trim()));
+        }
+        return equalizer;
+    }
+
+    /** @param value the crossover frequency in Hz, followed by ":low" or ":high" for the branch to keep */
+    private static BiquadEffect createCrossover(String value) {
+        String[] parts = value.split(":");
+        boolean isHighPass = parts.length > 1 && parts[1].equals("high");
+        if (parts.length > 2 || (parts.length == 2 && !isHighPass && !parts[1].equals("low"))) {
+            throw new IllegalArgumentException("Expected --crossover Hz[:low|:high], not " + value);
+        }
+        return BiquadEffect.linkwitzRiley(Double.parseDouble(parts[0]), isHighPass);
+    }
+}
@@ -0,0 +1,98 @@
+package audio;
+
+import jdk.jfr.*;
+
+/**
+ * The Java Flight Recorder view of AudioMetrics, emitted once per period (every second by default)
+ * with what happened since the previous event. Enable it in a recording with audio.Metrics#enabled=true.
+ */
+@Name("audio.Metrics")
+@Label("Audio Metrics")
+@Category("Audio")
+@Description("Processing times, xruns and line buffer levels of the audio loop")
+@Period("1 s")
+@StackTrace(false)
+class MetricsEvent extends Event {
+    @Label("Frames")
+    long frames;
+
+    @Label("Late Frames")
+    @Description("Frames whose processing took longer than the frame duration")
+    long lateFrames;
+
+    @Label("Overruns")
+    long overruns;
+
+    @Label("Underruns")
+    long underruns;
+
+    @Label("Process Median")
+    @Timespan
+    long processP50;
+
+    @Label("Process 99th Percentile")
+    @Timespan
+    long processP99;
+
+    @Label("Process Max")
+    @Timespan
+    long processMax;
+
+    @Label("Read 99th Percentile")
+    @Timespan
+    long readP99;
+
+    @Label("Write 99th Percentile")
+    @Timespan
+    long writeP99;
+
+    @Label("Frame Duration")
+    @Timespan
+    long frameDuration;
+
+    @Label("Input Buffer Fill")
+    @Percentage
+    float inputFill;
+
+    @Label("Output Buffer Fill")
+    @Percentage
+    float outputFill;
+
+    @Label("Latency")
+    @Timespan
+    long latency;
+
+    /** Emits the event for one AudioMetrics, called by the recorder on its own thread. */
+    static final class Hook implements Runnable {
+        private final AudioMetrics metrics;
+        private AudioMetrics.Snapshot previous;
+
+        Hook(AudioMetrics metrics) {
+            this.metrics = metrics;
+            this.previous = metrics.snapshot();
+        }
+
+        @Override
+        public void run() {
+            AudioMetrics.Snapshot current = metrics.snapshot();
+            AudioMetrics.Snapshot period = current.since(previous);
+            previous = current;
+
+            MetricsEvent event = new MetricsEvent();
+            event.frames = period.getFrames();
+            event.lateFrames = period.getLateFrames();
+            event.overruns = period.getOverruns();
+            event.underruns = period.getUnderruns();
+            event.processP50 = period.getProcess().getPercentileNanos(50);
+            event.processP99 = period.getProcess().getPercentileNanos(99);
+            event.processMax = period.getProcess().getMaxNanos();
+            event.readP99 = period.getRead().getPercentileNanos(99);
+            event.writeP99 = period.getWrite().getPercentileNanos(99);
+            event.frameDuration = period.getFrameNanos();
+            event.inputFill = period.getInputFill();
+            event.outputFill = period.getOutputFill();
+            event.latency = (long) (period.getLatencySeconds() * 1e9);
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package audio;
+
+import math.Precision;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Runs the processing of an AudioProcessor over audio files instead of live lines, as fast as
+ * possible. The input file is decoded in large blocks, each block goes through
+ * AudioProcessor.process() (effects and analyzer included) and is written to the output file.
+ */
+public class OfflineProcessor {
+    public static final int DEFAULT_BLOCK_SIZE = 65536;
+
+    private final AudioProcessor audioProcessor;
+    private final int blockSize;
+
+    /** @param blockSize the number of samples processed at once */
+    public OfflineProcessor(int blockSize) {
+        this(blockSize, Precision.DOUBLE);
+    }
+
+    /**
+     * @param blockSize the number of samples processed at once
+     * @param precision of the AudioProcessor: with FLOAT, mono files are decoded in single precision
+     */
+    public OfflineProcessor(int blockSize, Precision precision) {
+        this.blockSize = blockSize;
+        this.audioProcessor = new AudioProcessor(null, null, blockSize, precision);
+    }
+
+    /** @return the processor whose effect chain and analyzer are applied to the files */
+    public AudioProcessor getAudioProcessor() {
+        return audioProcessor;
+    }
+
+    /**
+     * Processes a whole file, whatever its number of channels. The output has the sample rate,
+     * channels and sample format of the input when a PCMCodec reads it, signed 16 bits otherwise,
+     * and its type (WAV or AIFF) is chosen from the output file extension.
+     */
+    public Result process(File input, File output) throws IOException, UnsupportedAudioFileException {
+        long start = System.nanoTime();
+
+        try (AudioInputStream source = openDecodable(AudioSystem.getAudioInputStream(input))) {
+            AudioFormat format = source.getFormat();
+            int channels = format.getChannels();
+            if (audioProcessor.getInputSignal().getChannelCount() != channels) {
+                audioProcessor.getInputSignal().setChannelCount(channels);
+                audioProcessor.getOutputSignal().setChannelCount(channels);
+            }
+            audioProcessor.getEffectChain().prepare(blockSize, format.getSampleRate(), channels);
+            // Nothing of the previous file is kept, by the effects nor by the analyses
+            if (audioProcessor.getAnalyzer() != null) audioProcessor.getAnalyzer().reset();
+            if (audioProcessor.getPitchDetector() != null) audioProcessor.getPitchDetector().reset();
+
+            ProcessedStream processed = new ProcessedStream(source);
+            AudioSystem.write(new AudioInputStream(processed, format, source.getFrameLength()), fileTypeOf(output), output);
+
+            return new Result(input, processed.samples, format.getSampleRate(), System.nanoTime() - start);
+        }
+    }
+
+    /** Keeps the stream as it is if a PCMCodec reads its format, and converts it to signed 16 bits otherwise. */
+    static AudioInputStream openDecodable(AudioInputStream source) {
+        AudioFormat format = source.getFormat();
+        if (PCMCodec.isSupported(format)) {
+            return source;
+        }
+        AudioFormat pcm16 = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, true);
+        return AudioSystem.getAudioInputStream(pcm16, source);
+    }
+
+    private static AudioFileFormat.Type fileTypeOf(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".aif") || name.endsWith(".aiff")) return AudioFileFormat.Type.AIFF;
+        return AudioFileFormat.Type.WAVE;
+    }
+
+    /** The processed audio, computed block by block as the file writer reads it. */
+    private class ProcessedStream extends InputStream {
+        private final AudioInputStream source;
+        private final AudioSignal inputSignal = audioProcessor.getInputSignal();
+        private final AudioSignal outputSignal = audioProcessor.getOutputSignal();
+        private final FloatAudioSignal floatSignal; // decodes mono blocks in single precision, null otherwise
+        private final int channels;
+        private final PCMCodec codec;
+        private final int frameBytes; // bytes of one sample of every channel
+        private final byte[] bytes;
+        private int position, available; // bytes of the current block already read, and in total
+        private long samples; // samples of each channel processed so far
+
+        ProcessedStream(AudioInputStream source) {
+            this.source = source;
+            this.channels = source.getFormat().getChannels();
+            this.codec = PCMCodec.forFormat(source.getFormat());
+            this.frameBytes = channels * codec.getBytesPerSample();
+            this.bytes = new byte[frameBytes * blockSize];
+            this.floatSignal = AudioProcessor.createFloatInput(audioProcessor.getPrecision(), blockSize, channels);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position == available && !nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, available - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /** Decodes, processes and encodes the next block. @return false at the end of the input */
+        private boolean nextBlock() throws IOException {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = source.read(bytes, read, bytes.length - read);
+                if (n == -1) break;
+                read += n;
+            }
+            int count = read / frameBytes;
+            if (count == 0) {
+                return false;
+            }
+
+            // The last block is completed with silence, only its first count samples are written
+            if (floatSignal != null) {
+                floatSignal.decode(codec, bytes, count);
+                inputSignal.widenFrom(floatSignal);
+            } else {
+                codec.decode(bytes, inputSignal.getChannels(), channels, count);
+                for (int c = 0; c < channels; c++) {
+                    Arrays.fill(inputSignal.getChannel(c), count, blockSize, 0);
+                }
+                inputSignal.updateLevel();
+            }
+
+            audioProcessor.process(inputSignal, outputSignal);
+
+            codec.encode(outputSignal.getChannels(), channels, bytes, count);
+            position = 0;
+            available = frameBytes * count;
+            samples += count;
+            return true;
+        }
+    }
+
+    /** What a file took to process. */
+    public static class Result {
+        private final File file;
+        private final long samples;
+        private final float sampleRate;
+        private final long nanos;
+
+        Result(File file, long samples, float sampleRate, long nanos) {
+            this.file = file;
+            this.samples = samples;
+            this.sampleRate = sampleRate;
+            this.nanos = nanos;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /** @return the duration of the processed audio, in seconds */
+        public double getAudioSeconds() {
+            return samples / (double) sampleRate;
+        }
+
+        /** @return the time the processing took, in seconds */
+        public double getProcessingSeconds() {
+            return nanos / 1e9;
+        }
+
+        /** @return how many times faster than real time the file was processed */
+        public double getRealTimeFactor() {
+            return getAudioSeconds() / getProcessingSeconds();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.2f s of audio in %.3f s (%.1fx real time)",
+                    file.getName(), getAudioSeconds(), getProcessingSeconds(), getRealTimeFactor());
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package audio;
+
+import math.Kernels;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Conversions between PCM bytes and double samples in [-1, 1], one constant per supported format.
+ * The codec is resolved once per audio line with {@link #forFormat(AudioFormat)}, so the per-frame
+ * loops neither look at the format nor allocate anything. Each format is converted straight from
+ * and to the samples, without going through another format first. Every integer format saturates
+ * the samples out of [-1, 1] the same way, so a frame clips alike whatever the format negotiated.
+ */
+public enum PCMCodec {
+    /** Signed 8 bits. */
+    PCM8(1, true),
+    /** Signed 16 bits, big endian. */
+    PCM16_BE(2, true),
+    /** Signed 16 bits, little endian, the native format of most sound cards. */
+    PCM16_LE(2, false),
+    /** Signed 24 bits, big endian. */
+    PCM24_BE(3, true),
+    /** Signed 24 bits, little endian. */
+    PCM24_LE(3, false),
+    /** 32 bits floating point, big endian. */
+    FLOAT32_BE(4, true),
+    /** 32 bits floating point, little endian. */
+    FLOAT32_LE(4, false);
+
+    // SIMD loops when the Vector API is available
+    private static final Kernels KERNELS = Kernels.get();
+
+    private static final int PCM24_MAX = (1 << 23) - 1;
+
+    private final int bytesPerSample;
+    private final boolean isBigEndian;
+    // Position of the most significant byte in a sample, and step to the next byte
+    private final int msb;
+    private final int step;
+
+    PCMCodec(int bytesPerSample, boolean isBigEndian) {
+        this.bytesPerSample = bytesPerSample;
+        this.isBigEndian = isBigEndian;
+        msb = isBigEndian ? 0 : bytesPerSample - 1;
+        step = isBigEndian ? 1 : -1;
+    }
+
+    public int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public boolean isBigEndian() {
+        return isBigEndian;
+    }
+
+    /** Converts count samples from bytes into samples. */
+    public void decode(byte[] bytes, double[] samples, int count) {
+        if (this == PCM16_BE) {
+            KERNELS.decodePCM16BE(bytes, samples, count);
+        } else if (this == PCM16_LE) {
+            KERNELS.decodePCM16LE(bytes, samples, count);
+        } else {
+            decode(bytes, 0, bytesPerSample, samples, count);
+        }
+    }
+
+    /** Converts count samples from samples into bytes. */
+    public void encode(double[] samples, byte[] bytes, int count) {
+        if (this == PCM16_BE) {
+            KERNELS.encodePCM16BE(samples, bytes, count);
+        } else if (this == PCM16_LE) {
+            KERNELS.encodePCM16LE(samples, bytes, count);
+        } else {
+            encode(samples, bytes, 0, bytesPerSample, count);
+        }
+    }
+
+    /**
+     * Converts count frames of channelCount interleaved samples into one array per channel, with
+     * one strided pass over the bytes per channel.
+     */
+    public void decode(byte[] bytes, double[][] channels, int channelCount, int count) {
+        if (channelCount == 1) {
+            decode(bytes, channels[0], count);
+            return;
+        }
+        int frameBytes = channelCount * bytesPerSample;
+        for (int c = 0; c < channelCount; c++) {
+            decode(bytes, c * bytesPerSample, frameBytes, channels[c], count);
+        }
+    }
+
+    /** Converts count frames from one array per channel into interleaved bytes. */
+    public void encode(double[][] channels, int channelCount, byte[] bytes, int count) {
+        if (channelCount == 1) {
+            encode(channels[0], bytes, count);
+            return;
+        }
+        int frameBytes = channelCount * bytesPerSample;
+        for (int c = 0; c < channelCount; c++) {
+            encode(channels[c], bytes, c * bytesPerSample, frameBytes, count);
+        }
+    }
+
+    /** Single precision version of decode(byte[], double[], int), gives the same values rounded to float. */
+    public void decode(byte[] bytes, float[] samples, int count) {
+        int p = msb;
+        switch (bytesPerSample) {
+            case 1:
+                for (int i = 0; i < count; i++) {
+                    samples[i] = bytes[i] / 128f;
+                }
+                break;
+            case 2:
+                for (int i = 0; i < count; i++, p += 2) {
+                    samples[i] = ((bytes[p] << 8) | (bytes[p + step] & 0xFF)) / 32768f;
+                }
+                break;
+            case 3:
+                for (int i = 0; i < count; i++, p += 3) {
+                    samples[i] = pcm24(bytes, p, step) / 8388608f;
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++, p += 4) {
+                    samples[i] = Float.intBitsToFloat(int32(bytes, p, step));
+                }
+        }
+    }
+
+    /** Single precision version of encode(double[], byte[], int). */
+    public void encode(float[] samples, byte[] bytes, int count) {
+        int p = msb;
+        switch (bytesPerSample) {
+            case 1:
+                for (int i = 0; i < count; i++) {
+                    bytes[i] = (byte) (Kernels.saturate(samples[i]) * 127);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < count; i++, p += 2) {
+                    short scaledValue = (short) (Kernels.saturate(samples[i]) * Short.MAX_VALUE);
+                    bytes[p] = (byte) (scaledValue >> 8);
+                    bytes[p + step] = (byte) scaledValue;
+                }
+                break;
+            case 3:
+                for (int i = 0; i < count; i++, p += 3) {
+                    putPCM24(bytes, p, step, (int) (Kernels.saturate(samples[i]) * PCM24_MAX));
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++, p += 4) {
+                    putInt32(bytes, p, step, Float.floatToRawIntBits(samples[i]));
+                }
+        }
+    }
+
+    /**
+     * Converts count samples that start at byte offset and are stride bytes apart, such as one
+     * channel of interleaved frames.
+     */
+    void decode(byte[] bytes, int offset, int stride, double[] samples, int count) {
+        int p = offset + msb;
+        switch (bytesPerSample) {
+            case 1:
+                for (int i = 0; i < count; i++, p += stride) {
+                    samples[i] = bytes[p] / 128.0;
+                }
+                break;
+            case 2:
+                for (int i = 0; i < count; i++, p += stride) {
+                    samples[i] = ((bytes[p] << 8) | (bytes[p + step] & 0xFF)) / 32768.0;
+                }
+                break;
+            case 3:
+                for (int i = 0; i < count; i++, p += stride) {
+                    samples[i] = pcm24(bytes, p, step) / 8388608.0;
+                }
+                break;
+            default:
+                // Widening a float to double is exact
+                for (int i = 0; i < count; i++, p += stride) {
+                    samples[i] = Float.intBitsToFloat(int32(bytes, p, step));
+                }
+        }
+    }
+
+    /** Converts count samples into bytes, the first one at byte offset and the others stride bytes apart. */
+    void encode(double[] samples, byte[] bytes, int offset, int stride, int count) {
+        int p = offset + msb;
+        switch (bytesPerSample) {
+            case 1:
+                for (int i = 0; i < count; i++, p += stride) {
+                    // Scale the double value to the range of bytes (-127 to 127), saturating like encodePCM16BE()
+                    bytes[p] = (byte) (Kernels.saturate(samples[i]) * 127);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < count; i++, p += stride) {
+                    // Scale the double value to the range of shorts (-32767 to 32767)
+                    short scaledValue = (short) (Kernels.saturate(samples[i]) * Short.MAX_VALUE);
+                    bytes[p] = (byte) (scaledValue >> 8);
+                    bytes[p + step] = (byte) scaledValue;
+                }
+                break;
+            case 3:
+                for (int i = 0; i < count; i++, p += stride) {
+                    putPCM24(bytes, p, step, (int) (Kernels.saturate(samples[i]) * PCM24_MAX));
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++, p += stride) {
+                    putInt32(bytes, p, step, Float.floatToRawIntBits((float) samples[i]));
+                }
+        }
+    }
+
+    /** @return the signed 24 bits sample whose most significant byte is at p, the next ones step bytes apart */
+    private static int pcm24(byte[] bytes, int p, int step) {
+        return (bytes[p] << 16) | ((bytes[p + step] & 0xFF) << 8) | (bytes[p + 2 * step] & 0xFF);
+    }
+
+    private static void putPCM24(byte[] bytes, int p, int step, int value) {
+        bytes[p] = (byte) (value >> 16);
+        bytes[p + step] = (byte) (value >> 8);
+        bytes[p + 2 * step] = (byte) value;
+    }
+
+    private static int int32(byte[] bytes, int p, int step) {
+        return (bytes[p] << 24) | ((bytes[p + step] & 0xFF) << 16)
+                | ((bytes[p + 2 * step] & 0xFF) << 8) | (bytes[p + 3 * step] & 0xFF);
+    }
+
+    private static void putInt32(byte[] bytes, int p, int step, int value) {
+        bytes[p] = (byte) (value >> 24);
+        bytes[p + step] = (byte) (value >> 16);
+        bytes[p + 2 * step] = (byte) (value >> 8);
+        bytes[p + 3 * step] = (byte) value;
+    }
+
+    /** @return the big endian codec of the given sample size */
+    public static PCMCodec forSampleSize(int sampleSizeInBits) {
+        if (sampleSizeInBits == 16) return PCM16_BE;
+        if (sampleSizeInBits == 8) return PCM8;
+        if (sampleSizeInBits == 24) return PCM24_BE;
+        throw new RuntimeException("Sample Size in Bits not supported");
+    }
+
+    /** @return the codec able to read and write the samples of the given format, whatever its number of channels */
+    public static PCMCodec forFormat(AudioFormat format) {
+        PCMCodec codec = find(format);
+        if (codec == null) {
+            throw new RuntimeException("Audio format not supported: " + format);
+        }
+        return codec;
+    }
+
+    /**
+     * @return whether a codec can read and write the samples of the given format. Samples padded in
+     * larger containers (e.g. 24 bits in 4 bytes) are not supported, the frames must be packed.
+     */
+    public static boolean isSupported(AudioFormat format) {
+        return find(format) != null;
+    }
+
+    private static PCMCodec find(AudioFormat format) {
+        PCMCodec codec = findBySampleSize(format);
+        int frameSize = format.getFrameSize();
+        int channels = format.getChannels();
+        if (codec != null && frameSize != AudioSystem.NOT_SPECIFIED && channels != AudioSystem.NOT_SPECIFIED
+                && frameSize != channels * codec.bytesPerSample) {
+            return null;
+        }
+        return codec;
+    }
+
+    private static PCMCodec findBySampleSize(AudioFormat format) {
+        int bits = format.getSampleSizeInBits();
+        if (format.getEncoding() == AudioFormat.Encoding.PCM_FLOAT) {
+            return bits != 32 ? null : format.isBigEndian() ? FLOAT32_BE : FLOAT32_LE;
+        }
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+            return null;
+        }
+        switch (bits) {
+            case 8:
+                return PCM8;
+            case 16:
+                return format.isBigEndian() ? PCM16_BE : PCM16_LE;
+            case 24:
+                return format.isBigEndian() ? PCM24_BE : PCM24_LE;
+            default:
+                return null;
+        }
+    }
+}
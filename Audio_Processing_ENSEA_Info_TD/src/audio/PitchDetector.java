@@ -0,0 +1,234 @@
+package audio;
+
+import math.FFT;
+import math.RealFFTPlan;
+
+import java.util.Arrays;
+
+/**
+ * Fundamental frequency tracker using the McLeod Pitch Method. The audio thread feeds it with frames
+ * of any size; every hopSize samples, the last windowSize samples are analysed and the pitch is
+ * published with its clarity, the height of the chosen peak of the normalized square difference
+ * function (NSDF), from 0 for noise to 1 for a perfectly periodic signal.
+ * The autocorrelation behind the NSDF is computed with a real FFT of twice the window, zero padded so
+ * that it does not wrap around: O(N log N) per hop instead of O(N^2). Nothing is allocated by feed().
+ */
+public class PitchDetector {
+    /** Index of the frequency in the published frames, in Hz, 0 when no pitch is found. */
+    public static final int FREQUENCY = 0;
+    /** Index of the clarity in the published frames, between 0 and 1. */
+    public static final int CLARITY = 1;
+
+    private static final int RESULTS_KEPT = 16;
+    private static final double PEAK_THRESHOLD = 0.9; // part of the highest peak a first peak must reach
+    private static final double SILENCE = 1e-10; // mean square below which nothing is searched
+
+    private final int windowSize;
+    private final int hopSize;
+    private final float sampleRate;
+    private final int minLag, maxLag;
+    private final RealFFTPlan plan;
+
+    private final double[] history;    // last windowSize samples, circular
+    private int historyPosition;       // where the next sample goes in history
+    private int samplesUntilHop;
+    private long position;             // number of samples fed since the beginning
+
+    private final double[] block;      // the window, oldest sample first, then as many zeros
+    private final double[] re, im;
+    private final double[] correlation; // autocorrelation of the window, by lag
+    private final double[] nsdf;
+    private final double[] result = new double[2];
+    private final FrameExchange results;
+
+    /**
+     * Searches frequencies from 50 Hz to 2 kHz.
+     * @param windowSize the number of samples analysed at once, at least two periods of the lowest frequency
+     * @param hopSize the number of samples between two analyses
+     * @param sampleRate the sample rate of the analysed signal
+     */
+    public PitchDetector(int windowSize, int hopSize, float sampleRate) {
+        this(windowSize, hopSize, sampleRate, 50, 2000);
+    }
+
+    /**
+     * @param minFrequency the lowest frequency searched, in Hz
+     * @param maxFrequency the highest frequency searched, in Hz
+     * @see #PitchDetector(int, int, float)
+     */
+    public PitchDetector(int windowSize, int hopSize, float sampleRate, double minFrequency, double maxFrequency) {
+        if (hopSize < 1) {
+            throw new IllegalArgumentException("hopSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+        this.hopSize = hopSize;
+        this.sampleRate = sampleRate;
+        this.minLag = Math.max(2, (int) Math.floor(sampleRate / maxFrequency));
+        this.maxLag = Math.min(windowSize - 2, (int) Math.ceil(sampleRate / minFrequency));
+        if (minLag >= maxLag) {
+            throw new IllegalArgumentException("The window is too short for the frequency range");
+        }
+
+        plan = FFT.realPlan(2 * windowSize);
+        history = new double[windowSize];
+        samplesUntilHop = hopSize;
+        block = new double[2 * windowSize];
+        re = new double[windowSize + 1];
+        im = new double[windowSize + 1];
+        correlation = new double[2 * windowSize];
+        nsdf = new double[maxLag + 2];
+        results = new FrameExchange(2, RESULTS_KEPT);
+    }
+
+    /**
+     * Adds samples to the analysed stream, and runs one analysis per hop completed.
+     * Must always be called by the same thread.
+     */
+    public void feed(double[] samples, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, samplesUntilHop);
+
+            if (count >= windowSize) {
+                // More samples than the history holds, only the last windowSize ones matter
+                System.arraycopy(samples, offset + count - windowSize, history, 0, windowSize);
+                historyPosition = 0;
+            } else {
+                int first = Math.min(count, windowSize - historyPosition);
+                System.arraycopy(samples, offset, history, historyPosition, first);
+                System.arraycopy(samples, offset + first, history, 0, count - first);
+                historyPosition = (historyPosition + count) % windowSize;
+            }
+
+            offset += count;
+            position += count;
+            samplesUntilHop -= count;
+
+            if (samplesUntilHop == 0) {
+                analyze();
+                samplesUntilHop = hopSize;
+            }
+        }
+    }
+
+    /**
+     * Starts a new stream, e.g. another file: the history is cleared and the timestamps start from 0
+     * again. Must be called by the thread that feeds the detector.
+     */
+    public void reset() {
+        Arrays.fill(history, 0);
+        historyPosition = 0;
+        samplesUntilHop = hopSize;
+        position = 0;
+    }
+
+    private void analyze() {
+        // Oldest sample first, the second half stays zero
+        int tail = windowSize - historyPosition;
+        System.arraycopy(history, historyPosition, block, 0, tail);
+        System.arraycopy(history, 0, block, tail, historyPosition);
+
+        double energy = computeNSDF();
+        double meanSquare = energy / windowSize;
+        result[FREQUENCY] = 0;
+        result[CLARITY] = 0;
+        if (meanSquare > SILENCE) {
+            findPitch();
+        }
+        results.publish(result, result.length, 10 * Math.log10(meanSquare), position);
+    }
+
+    /**
+     * Fills nsdf[lag] = 2 r(lag) / m(lag), r being the autocorrelation of the window and m the sum of
+     * the squares of the samples it pairs. @return the energy of the window
+     */
+    private double computeNSDF() {
+        // r is the inverse transform of the power spectrum
+        plan.transform(block, re, im);
+        for (int k = 0; k <= windowSize; k++) {
+            re[k] = re[k] * re[k] + im[k] * im[k];
+            im[k] = 0;
+        }
+        double energy = 0;
+        for (int i = 0; i < windowSize; i++) {
+            energy += block[i] * block[i];
+        }
+        plan.inverse(re, im, correlation);
+
+        // m(lag) loses the square of one sample at each end when the lag grows by one
+        double m = 2 * energy;
+        for (int lag = 0; lag < nsdf.length; lag++) {
+            if (lag > 0) {
+                double first = block[lag - 1];
+                double last = block[windowSize - lag];
+                m -= first * first + last * last;
+            }
+            nsdf[lag] = m > 0 ? 2 * correlation[lag] / m : 0;
+        }
+        return energy;
+    }
+
+    /**
+     * Keeps the highest maximum between each positive zero crossing of the NSDF and the next negative
+     * one, then takes the first of them that reaches PEAK_THRESHOLD of the highest, refined by a
+     * parabola through the three points around it.
+     */
+    private void findPitch() {
+        // Skip the peak at lag 0, until the NSDF goes negative
+        int lag = 1;
+        while (lag <= maxLag && nsdf[lag] > 0) lag++;
+
+        double highest = 0;
+        for (int l = Math.max(lag, minLag); l <= maxLag; l++) {
+            if (nsdf[l] > highest && nsdf[l] >= nsdf[l - 1] && nsdf[l] >= nsdf[l + 1]) highest = nsdf[l];
+        }
+        if (highest <= 0) {
+            return;
+        }
+
+        double threshold = PEAK_THRESHOLD * highest;
+        while (lag <= maxLag) {
+            // The next positive lobe, and its maximum
+            while (lag <= maxLag && nsdf[lag] <= 0) lag++;
+            int peak = lag;
+            while (lag <= maxLag && nsdf[lag] > 0) {
+                if (nsdf[lag] > nsdf[peak]) peak = lag;
+                lag++;
+            }
+            if (peak >= minLag && peak <= maxLag && nsdf[peak] >= threshold) {
+                double left = nsdf[peak - 1], center = nsdf[peak], right = nsdf[peak + 1];
+                double curvature = left - 2 * center + right;
+                double shift = curvature < 0 ? 0.5 * (left - right) / curvature : 0;
+                result[FREQUENCY] = sampleRate / (peak + shift);
+                result[CLARITY] = Math.min(1, center - 0.25 * (left - right) * shift);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the results computed so far. Each frame holds the frequency at index FREQUENCY and the
+     * clarity at index CLARITY, has for level the mean square of the window in dB, and for timestamp
+     * the number of samples fed up to the end of the window. The last 16 results are kept.
+     */
+    public FrameExchange getResults() {
+        return results;
+    }
+
+    /** @return the time in seconds of a result timestamp */
+    public double toSeconds(long timestamp) {
+        return timestamp / (double) sampleRate;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+}
@@ -0,0 +1,224 @@
+package audio;
+
+import math.FFT;
+import math.FloatFFT;
+import math.FloatRealFFTPlan;
+import math.Precision;
+import math.RealFFTPlan;
+import math.Window;
+
+import java.util.Arrays;
+
+/**
+ * Short-time Fourier transform of a stream of samples. The audio thread feeds it with frames of any
+ * size; every hopSize samples, the last fftSize samples are windowed and transformed, and the
+ * magnitudes of the fftSize/2+1 bins are published with the position of the analysed block.
+ * The analysis resolution is thus independent of the capture frame size, and the FFT runs once per
+ * hop whatever the number of readers. Nothing is allocated by feed().
+ * With {@link Precision#FLOAT}, the windowing and the FFT run in single precision.
+ */
+public class STFTAnalyzer {
+    private static final int SPECTRA_KEPT = 16;
+
+    private final int fftSize;
+    private final int hopSize;
+    private final float sampleRate;
+    private final Precision precision;
+    private final double amplitudeScale; // 2 / sum of the window
+    private final double[] window;
+    private final RealFFTPlan plan;
+
+    private final double[] history;    // last fftSize samples, circular
+    private int historyPosition;       // where the next sample goes in history
+    private int samplesUntilHop;
+    private long position;             // number of samples fed since the beginning
+
+    private final double[] block;      // windowed samples given to the FFT
+    private final double[] re, im;
+    private final float[] floatBlock, floatRe, floatIm; // same in single precision
+    private final float[] floatWindow;
+    private final FloatRealFFTPlan floatPlan;
+    private final double[] magnitudes;
+    private final FrameExchange spectra;
+
+    /**
+     * @param fftSize the number of samples analysed at once, must be even
+     * @param hopSize the number of samples between two analyses, lower than fftSize for overlapping blocks
+     * @param window the window applied to each block
+     * @param sampleRate the sample rate of the analysed signal
+     */
+    public STFTAnalyzer(int fftSize, int hopSize, Window window, float sampleRate) {
+        this(fftSize, hopSize, window, sampleRate, Precision.DOUBLE);
+    }
+
+    /**
+     * @param precision the precision of the windowing and of the FFT
+     * @see #STFTAnalyzer(int, int, Window, float)
+     */
+    public STFTAnalyzer(int fftSize, int hopSize, Window window, float sampleRate, Precision precision) {
+        if (hopSize < 1) {
+            throw new IllegalArgumentException("hopSize must be at least 1");
+        }
+        this.fftSize = fftSize;
+        this.hopSize = hopSize;
+        this.sampleRate = sampleRate;
+        this.precision = precision;
+        double windowSum = 0;
+        for (double w : window.table(fftSize)) {
+            windowSum += w;
+        }
+        this.amplitudeScale = 2 / windowSum;
+
+        history = new double[fftSize];
+        samplesUntilHop = hopSize;
+        // Only the buffers of the chosen precision are allocated
+        boolean single = precision == Precision.FLOAT;
+        this.window = single ? null : window.table(fftSize);
+        this.plan = single ? null : FFT.realPlan(fftSize);
+        block = single ? null : new double[fftSize];
+        re = single ? null : new double[fftSize / 2 + 1];
+        im = single ? null : new double[fftSize / 2 + 1];
+        floatWindow = single ? window.floatTable(fftSize) : null;
+        floatPlan = single ? FloatFFT.realPlan(fftSize) : null;
+        floatBlock = single ? new float[fftSize] : null;
+        floatRe = single ? new float[fftSize / 2 + 1] : null;
+        floatIm = single ? new float[fftSize / 2 + 1] : null;
+        magnitudes = new double[fftSize / 2 + 1];
+        spectra = new FrameExchange(fftSize / 2 + 1, SPECTRA_KEPT);
+    }
+
+    /**
+     * Adds samples to the analysed stream, and runs one analysis per hop completed.
+     * Must always be called by the same thread.
+     */
+    public void feed(double[] samples, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, samplesUntilHop);
+
+            if (count >= fftSize) {
+                // More samples than the history holds, only the last fftSize ones matter
+                System.arraycopy(samples, offset + count - fftSize, history, 0, fftSize);
+                historyPosition = 0;
+            } else {
+                // Copy into the circular history, in two parts if it wraps around
+                int first = Math.min(count, fftSize - historyPosition);
+                System.arraycopy(samples, offset, history, historyPosition, first);
+                System.arraycopy(samples, offset + first, history, 0, count - first);
+                historyPosition = (historyPosition + count) % fftSize;
+            }
+
+            offset += count;
+            position += count;
+            samplesUntilHop -= count;
+
+            if (samplesUntilHop == 0) {
+                analyze();
+                samplesUntilHop = hopSize;
+            }
+        }
+    }
+
+    /**
+     * Starts a new stream, e.g. another file: the history is cleared and the timestamps start from 0
+     * again. The spectra already published stay readable, their sequence numbers go on.
+     * Must be called by the thread that feeds the analyzer.
+     */
+    public void reset() {
+        Arrays.fill(history, 0);
+        historyPosition = 0;
+        samplesUntilHop = hopSize;
+        position = 0;
+    }
+
+    private void analyze() {
+        double sum = precision == Precision.FLOAT ? transformFloat() : transformDouble();
+
+        // Approximate level of the windowed block from its spectrum (Parseval), for readers that want one
+        double dBlevel = 10 * Math.log10(2 * sum / ((double) fftSize * fftSize));
+        spectra.publish(magnitudes, magnitudes.length, dBlevel, position);
+    }
+
+    /** Windows and transforms the history into magnitudes. @return the sum of the squared magnitudes */
+    private double transformDouble() {
+        // Oldest sample first
+        int tail = fftSize - historyPosition;
+        for (int i = 0; i < tail; i++) {
+            block[i] = history[historyPosition + i] * window[i];
+        }
+        for (int i = tail; i < fftSize; i++) {
+            block[i] = history[i - tail] * window[i];
+        }
+
+        plan.transform(block, re, im);
+
+        double sum = 0;
+        for (int k = 0; k < magnitudes.length; k++) {
+            double power = re[k] * re[k] + im[k] * im[k];
+            magnitudes[k] = Math.sqrt(power);
+            sum += power;
+        }
+        return sum;
+    }
+
+    /** Same as transformDouble() in single precision, only the magnitudes and their sum are in double. */
+    private double transformFloat() {
+        int tail = fftSize - historyPosition;
+        for (int i = 0; i < tail; i++) {
+            floatBlock[i] = (float) history[historyPosition + i] * floatWindow[i];
+        }
+        for (int i = tail; i < fftSize; i++) {
+            floatBlock[i] = (float) history[i - tail] * floatWindow[i];
+        }
+
+        floatPlan.transform(floatBlock, floatRe, floatIm);
+
+        double sum = 0;
+        for (int k = 0; k < magnitudes.length; k++) {
+            double power = floatRe[k] * floatRe[k] + floatIm[k] * floatIm[k];
+            magnitudes[k] = Math.sqrt(power);
+            sum += power;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the spectra computed so far. Each frame holds the magnitudes of bins 0 to fftSize/2 and
+     * has for timestamp the number of samples fed up to the end of the analysed block. The last
+     * 16 spectra are kept, so a reader can get every one of them by sequence number.
+     */
+    public FrameExchange getSpectra() {
+        return spectra;
+    }
+
+    /** @return the time in seconds of a spectrum timestamp */
+    public double toSeconds(long timestamp) {
+        return timestamp / (double) sampleRate;
+    }
+
+    /** @return the factor turning the magnitude of a bin into the amplitude of a sine at its frequency */
+    public double getAmplitudeScale() {
+        return amplitudeScale;
+    }
+
+    /** @return the frequency in Hz of bin k */
+    public double binFrequency(int k) {
+        return k * (double) sampleRate / fftSize;
+    }
+
+    public int getFFTSize() {
+        return fftSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+}
@@ -0,0 +1,77 @@
+package audio;
+
+/**
+ * The spectra of an {@link STFTAnalyzer}, as seen by the views of a signal. The analyzer runs on the
+ * audio thread, windowed and hopped whatever the frame size, so the FFT of each block is computed
+ * once whatever the number of views; a view reads the spectra it has not drawn yet by sequence
+ * number. Reading the spectrum already loaded by another view costs nothing. The owner decides when the
+ * audio thread feeds the analyzer: ui.Main only gives it to the AudioProcessor while a view is shown.
+ * Meant to be used by a single thread, the UI thread.
+ */
+public class SpectrumCache {
+    private STFTAnalyzer analyzer;
+    private final FrameExchange.Frame frame = new FrameExchange.Frame();
+    private long loadedSequence; // sequence number of the spectrum in frame, 0 if none
+
+    /** @param analyzer the analyzer whose spectra are read, fed by the audio thread */
+    public SpectrumCache(STFTAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /** Reads the spectra of another analyzer from now on, e.g. after the sample rate has changed. */
+    public void setAnalyzer(STFTAnalyzer analyzer) {
+        this.analyzer = analyzer;
+        loadedSequence = 0;
+    }
+
+    public STFTAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /** @return the sequence number of the last spectrum published, 0 if there is none yet */
+    public long getLatestSequence() {
+        return analyzer.getSpectra().latestSequence();
+    }
+
+    /**
+     * Loads a spectrum, whose magnitudes getMagnitudes() then returns.
+     * @return false if that spectrum has not been published yet, or is no longer kept
+     */
+    public boolean load(long sequence) {
+        if (sequence == loadedSequence) {
+            return true;
+        }
+        if (!analyzer.getSpectra().read(sequence, frame)) {
+            return false;
+        }
+        loadedSequence = sequence;
+        return true;
+    }
+
+    /**
+     * @return the magnitudes of bins 0 to getFFTSize()/2 of the loaded spectrum. The array is shared
+     * between callers and must not be modified.
+     */
+    public double[] getMagnitudes() {
+        return frame.getSamples();
+    }
+
+    /** @return the sequence number of the loaded spectrum, 0 if none */
+    public long getSequence() {
+        return loadedSequence;
+    }
+
+    /** @return the number of points of the FFT behind the magnitudes */
+    public int getFFTSize() {
+        return analyzer.getFFTSize();
+    }
+
+    public float getSampleRate() {
+        return analyzer.getSampleRate();
+    }
+
+    /** @see STFTAnalyzer#getAmplitudeScale() */
+    public double getAmplitudeScale() {
+        return analyzer.getAmplitudeScale();
+    }
+}
@@ -0,0 +1,104 @@
+package math;
+
+/**
+ * Second order filter sections, designed with the formulas of the Audio EQ Cookbook (R. Bristow-Johnson).
+ * A section is 5 coefficients b0, b1, b2, a1, a2 normalized so that a0 = 1, for
+ * y[n] = b0 x[n] + b1 x[n-1] + b2 x[n-2] - a1 y[n-1] - a2 y[n-2]. They are written into flat
+ * arrays, COEFFICIENTS values per section, so that a cascade is a single double[].
+ */
+public enum Biquad {
+    /** 12 dB per octave above the frequency; a Q of 1/sqrt(2) gives a Butterworth response. */
+    LOW_PASS {
+        @Override
+        void design(double[] c, int offset, double cos, double alpha, double A) {
+            set(c, offset, (1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+        }
+    },
+
+    /** 12 dB per octave below the frequency. */
+    HIGH_PASS {
+        @Override
+        void design(double[] c, int offset, double cos, double alpha, double A) {
+            set(c, offset, (1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+        }
+    },
+
+    /** 0 dB at the frequency, its bandwidth set by Q. */
+    BAND_PASS {
+        @Override
+        void design(double[] c, int offset, double cos, double alpha, double A) {
+            set(c, offset, alpha, 0, -alpha, 1 + alpha, -2 * cos, 1 - alpha);
+        }
+    },
+
+    /** The gain around the frequency, its bandwidth set by Q: the band of a parametric EQ. */
+    PEAK {
+        @Override
+        void design(double[] c, int offset, double cos, double alpha, double A) {
+            set(c, offset, 1 + alpha * A, -2 * cos, 1 - alpha * A, 1 + alpha / A, -2 * cos, 1 - alpha / A);
+        }
+    },
+
+    /** The gain below the frequency. */
+    LOW_SHELF {
+        @Override
+        void design(double[] c, int offset, double cos, double alpha, double A) {
+            double s = 2 * Math.sqrt(A) * alpha;
+            set(c, offset, A * ((A + 1) - (A - 1) * cos + s), 2 * A * ((A - 1) - (A + 1) * cos),
+                    A * ((A + 1) - (A - 1) * cos - s), (A + 1) + (A - 1) * cos + s,
+                    -2 * ((A - 1) + (A + 1) * cos), (A + 1) + (A - 1) * cos - s);
+        }
+    },
+
+    /** The gain above the frequency. */
+    HIGH_SHELF {
+        @Override
+        void design(double[] c, int offset, double cos, double alpha, double A) {
+            double s = 2 * Math.sqrt(A) * alpha;
+            set(c, offset, A * ((A + 1) + (A - 1) * cos + s), -2 * A * ((A - 1) + (A + 1) * cos),
+                    A * ((A + 1) + (A - 1) * cos - s), (A + 1) - (A - 1) * cos + s,
+                    2 * ((A - 1) - (A + 1) * cos), (A + 1) - (A - 1) * cos - s);
+        }
+    };
+
+    /** The number of values of a section in a coefficient array. */
+    public static final int COEFFICIENTS = 5;
+
+    /** Q of the sections of Butterworth and Linkwitz-Riley filters. */
+    public static final double BUTTERWORTH_Q = Math.sqrt(0.5);
+
+    abstract void design(double[] c, int offset, double cos, double alpha, double A);
+
+    /**
+     * Writes the coefficients of a section.
+     * @param c the coefficient array, section at offset to offset+4
+     * @param frequency the center or cutoff frequency in Hz, below half the sample rate
+     * @param q the quality factor, higher for a narrower band or a sharper corner
+     * @param gainIndB the gain of PEAK and shelf sections, ignored by the others
+     */
+    public void design(double[] c, int offset, double frequency, double q, double gainIndB, float sampleRate) {
+        double w0 = 2 * Math.PI * Math.min(frequency, 0.49 * sampleRate) / sampleRate;
+        double A = Math.pow(10, gainIndB / 40);
+        design(c, offset, Math.cos(w0), Math.sin(w0) / (2 * q), A);
+    }
+
+    private static void set(double[] c, int offset, double b0, double b1, double b2, double a0, double a1, double a2) {
+        c[offset] = b0 / a0;
+        c[offset + 1] = b1 / a0;
+        c[offset + 2] = b2 / a0;
+        c[offset + 3] = a1 / a0;
+        c[offset + 4] = a2 / a0;
+    }
+
+    /** @return the gain in dB of the section at offset for a frequency, e.g. to draw the response of an EQ */
+    public static double gainIndB(double[] c, int offset, double frequency, float sampleRate) {
+        double w = 2 * Math.PI * frequency / sampleRate;
+        double cos1 = Math.cos(w), sin1 = Math.sin(w), cos2 = Math.cos(2 * w), sin2 = Math.sin(2 * w);
+        // H = (b0 + b1 z^-1 + b2 z^-2) / (1 + a1 z^-1 + a2 z^-2), with z^-k = cos(kw) - i sin(kw)
+        double nr = c[offset] + c[offset + 1] * cos1 + c[offset + 2] * cos2;
+        double ni = -c[offset + 1] * sin1 - c[offset + 2] * sin2;
+        double dr = 1 + c[offset + 3] * cos1 + c[offset + 4] * cos2;
+        double di = -c[offset + 3] * sin1 - c[offset + 4] * sin2;
+        return 10 * Math.log10((nr * nr + ni * ni) / (dr * dr + di * di));
+    }
+}
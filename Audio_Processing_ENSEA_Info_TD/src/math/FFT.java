@@ -1,39 +1,167 @@
 package math;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 public class FFT {
+    // Bit-reversal and twiddle tables, indexed by log2 of the FFT size and built on first use
+    private static final Radix2Tables[] tables = new Radix2Tables[31];
+    // Plans already built, by size
+    private static final ConcurrentHashMap<Integer, FFTPlan> plans = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, RealFFTPlan> realPlans = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the plan of a FFT of N points. The plan is built the first time a size is asked for,
+     * then the same instance is returned. Keep the returned plan to skip the lookup in hot loops.
+     */
+    public static FFTPlan plan(int N) {
+        return plans.computeIfAbsent(N, FFTPlan::create);
+    }
+
+    /**
+     * Returns the plan of a real input FFT of N points, N being even. Cached like plan(N).
+     */
+    public static RealFFTPlan realPlan(int N) {
+        return realPlans.computeIfAbsent(N, RealFFTPlan::new);
+    }
+
+    /**
+     * Computes the FFT of x. Kept for compatibility, it simply copies x into primitive arrays
+     * and runs the in-place transform.
+     * @param x the signal, of any length
+     * @return a new array containing the spectrum of x
+     */
     public static Complex[] fft(Complex[] x) {
         int N = x.length;
 
-        if (N == 1) {
-            return new Complex[]{x[0]};
+        double[] re = new double[N];
+        double[] im = new double[N];
+        for (int k = 0; k < N; k++) {
+            re[k] = x[k].real();
+            im[k] = x[k].imag();
         }
 
-        if (N % 2 != 0) {
-            throw new IllegalArgumentException("N is not a power of 2");
+        fft(re, im);
+
+        Complex[] y = new Complex[N];
+        for (int k = 0; k < N; k++) {
+            y[k] = new Complex(re[k], im[k]);
         }
+        return y;
+    }
 
-        // FFT of even terms
-        Complex[] even = new Complex[N / 2];
-        for (int k = 0; k < N / 2; k++) {
-            even[k] = x[2 * k];
+    /**
+     * Computes the FFT in place on the real and imaginary parts of a signal of any length: radix-2 for
+     * powers of 2, mixed radix for other products of 2, 3 and 5, Bluestein otherwise (see FFTPlan).
+     * Nothing is allocated once the plan for this size has been built.
+     * @param re real part, replaced by the real part of the spectrum
+     * @param im imaginary part, replaced by the imaginary part of the spectrum
+     */
+    public static void fft(double[] re, double[] im) {
+        if (im.length != re.length) {
+            throw new IllegalArgumentException("re and im must have the same length");
+        }
+        if (re.length > 0) {
+            plan(re.length).transform(re, im);
         }
-        Complex[] q = fft(even);
+    }
 
-        // FFT of odd terms
-        Complex[] odd = even;  // reuse the array
-        for (int k = 0; k < N / 2; k++) {
-            odd[k] = x[2 * k + 1];
+    /**
+     * Computes the inverse FFT in place, scaled so that ifft(fft(x)) gives x back.
+     */
+    public static void ifft(double[] re, double[] im) {
+        if (im.length != re.length) {
+            throw new IllegalArgumentException("re and im must have the same length");
+        }
+        if (re.length > 0) {
+            plan(re.length).inverse(re, im);
         }
-        Complex[] r = fft(odd);
+    }
 
-        // Combine
-        Complex[] y = new Complex[N];
-        for (int k = 0; k < N / 2; k++) {
-            double kth = -2 * k * Math.PI / N;
-            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-            y[k] = q[k].plus(wk.times(r[k]));
-            y[k + N / 2] = q[k].minus(wk.times(r[k]));
+    /**
+     * Computes the FFT of a real signal. The N real samples are packed into an N/2 points complex
+     * FFT, which is then split into the N/2+1 non-redundant bins of the spectrum.
+     * @param x the signal, its length N must be even
+     * @param re receives the real part of bins 0 to N/2, must hold at least N/2+1 values
+     * @param im receives the imaginary part of bins 0 to N/2, must hold at least N/2+1 values
+     */
+    public static void realFFT(double[] x, double[] re, double[] im) {
+        realPlan(x.length).transform(x, re, im);
+    }
+
+    /**
+     * Radix-2 FFT in place on the first N values of re and im, N being a power of 2.
+     */
+    static void radix2(double[] re, double[] im, int N) {
+        if (N <= 1) {
+            return;
+        }
+
+        Radix2Tables t = radix2Tables(N);
+
+        // Put the samples in bit-reversed order
+        int[] rev = t.bitReverse;
+        for (int i = 0; i < N; i++) {
+            int j = rev[i];
+            if (i < j) {
+                double tmp = re[i]; re[i] = re[j]; re[j] = tmp;
+                tmp = im[i]; im[i] = im[j]; im[j] = tmp;
+            }
+        }
+
+        // Butterflies, from size 2 up to size N
+        Kernels kernels = Kernels.get();
+        for (int half = 1; half < N; half <<= 1) {
+            kernels.butterflies(re, im, N, half, t.cos, t.sin);
+        }
+    }
+
+    private static Radix2Tables radix2Tables(int N) {
+        if ((N & (N - 1)) != 0) {
+            throw new IllegalArgumentException("N is not a power of 2");
+        }
+        int log2 = Integer.numberOfTrailingZeros(N);
+        Radix2Tables t = tables[log2];
+        if (t == null) {
+            // Two threads may build the same table, both results are identical
+            t = new Radix2Tables(N);
+            tables[log2] = t;
+        }
+        return t;
+    }
+
+    /** Precomputed tables for one power of 2 FFT size. */
+    private static final class Radix2Tables {
+        final int[] bitReverse;
+        // Twiddles of each stage one after the other, so that each stage reads them contiguously:
+        // from index half-1, cos(-pi*k/half) for k < half
+        final double[] cos;
+        final double[] sin;
+
+        Radix2Tables(int N) {
+            int bits = Integer.numberOfTrailingZeros(N);
+            bitReverse = new int[N];
+            for (int i = 0; i < N; i++) {
+                bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+
+            double[] fullCos = new double[N / 2];
+            double[] fullSin = new double[N / 2];
+            for (int k = 0; k < N / 2; k++) {
+                double kth = -2 * k * Math.PI / N;
+                fullCos[k] = Math.cos(kth);
+                fullSin[k] = Math.sin(kth);
+            }
+
+            // Taken from the table of size N, so that every stage uses the same values as before
+            cos = new double[N - 1];
+            sin = new double[N - 1];
+            for (int half = 1; half < N; half <<= 1) {
+                int step = N / (2 * half);
+                for (int k = 0; k < half; k++) {
+                    cos[half - 1 + k] = fullCos[k * step];
+                    sin[half - 1 + k] = fullSin[k * step];
+                }
+            }
         }
-        return y;
     }
 }
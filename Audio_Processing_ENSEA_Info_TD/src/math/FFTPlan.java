@@ -0,0 +1,423 @@
+package math;
+
+import java.util.Arrays;
+
+/**
+ * A precomputed way of running the FFT of one given size. Plans are built by {@link FFT#plan(int)},
+ * which picks the cheapest algorithm able to handle the size and caches the result.
+ * A plan never changes once built and can be shared between threads.
+ */
+public abstract class FFTPlan {
+    /** The algorithms a plan can use. */
+    public enum Algorithm { RADIX_2, MIXED_RADIX, BLUESTEIN }
+
+    protected final int size;
+
+    protected FFTPlan(int size) {
+        this.size = size;
+    }
+
+    /** @return the number of points of the transform */
+    public int size() {
+        return size;
+    }
+
+    public abstract Algorithm algorithm();
+
+    /**
+     * Computes the FFT in place on the first size() values of re and im.
+     * @param re real part, replaced by the real part of the spectrum
+     * @param im imaginary part, replaced by the imaginary part of the spectrum
+     */
+    public abstract void transform(double[] re, double[] im);
+
+    /**
+     * Computes the inverse FFT in place on the first size() values of re and im, scaled by 1/size()
+     * so that inverse(transform(x)) gives x back.
+     */
+    public void inverse(double[] re, double[] im) {
+        // Swapping the real and imaginary parts turns the forward transform into the inverse one
+        transform(im, re);
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    /**
+     * Builds the plan for a FFT of N points. Powers of 2 always use the radix-2 transform, whose cached
+     * tables and vector butterflies beat what a count of operations would credit to the mixed radix one.
+     * Other sizes get the cheapest of the mixed radix and Bluestein plans, by a rough count of the
+     * floating point operations of each.
+     */
+    static FFTPlan create(int N) {
+        if (N < 1) {
+            throw new IllegalArgumentException("N must be positive");
+        }
+
+        if ((N & (N - 1)) == 0) {
+            return new Radix2(N);
+        }
+
+        FFTPlan best = null;
+        double bestCost = Double.MAX_VALUE;
+
+        int[] radices = MixedRadix.factorize(N);
+        if (radices != null && MixedRadix.cost(N, radices) < bestCost) {
+            best = new MixedRadix(N, radices);
+            bestCost = MixedRadix.cost(N, radices);
+        }
+
+        if (Bluestein.cost(N) < bestCost) {
+            best = new Bluestein(N);
+        }
+
+        return best;
+    }
+
+    /** Power of 2 sizes, using the radix-2 transform of {@link FFT}. */
+    private static final class Radix2 extends FFTPlan {
+        Radix2(int N) {
+            super(N);
+        }
+
+        /** Used to price the inner transforms of Bluestein, the choice of a power of 2 does not depend on it. */
+        static double cost(int N) {
+            return 5.0 * N * Integer.numberOfTrailingZeros(N);
+        }
+
+        @Override
+        public Algorithm algorithm() {
+            return Algorithm.RADIX_2;
+        }
+
+        @Override
+        public void transform(double[] re, double[] im) {
+            FFT.radix2(re, im, size);
+        }
+    }
+
+    /**
+     * Sizes made of factors 2, 3, 4 and 5 that are not powers of 2. Decimation in time: the input is put in digit-reversed
+     * order, then each stage merges blocks with a hard coded small DFT.
+     */
+    private static final class MixedRadix extends FFTPlan {
+        private static final double SIN_60 = Math.sqrt(3) / 2;
+        private static final double COS_72 = Math.cos(2 * Math.PI / 5);
+        private static final double COS_144 = Math.cos(4 * Math.PI / 5);
+        private static final double SIN_72 = Math.sin(2 * Math.PI / 5);
+        private static final double SIN_144 = Math.sin(4 * Math.PI / 5);
+
+        private final int[] radices;   // radix of each stage, first stage first
+        private final int[] source;    // source[i] is the input index that goes to position i
+        private final int[] cycles;    // first index of every cycle of the permutation
+        private final double[] cos;    // cos(-2*pi*k/N)
+        private final double[] sin;    // sin(-2*pi*k/N)
+
+        MixedRadix(int N, int[] radices) {
+            super(N);
+            this.radices = radices;
+
+            // Digit-reversed order: the last stage splits the input by index modulo its radix
+            source = new int[N];
+            for (int i = 0; i < N; i++) {
+                int rest = i;
+                int block = N;
+                int position = 0;
+                for (int s = radices.length - 1; s >= 0; s--) {
+                    block /= radices[s];
+                    position += (rest % radices[s]) * block;
+                    rest /= radices[s];
+                }
+                source[position] = i;
+            }
+
+            // Store one index per cycle so that the permutation can be done in place
+            boolean[] visited = new boolean[N];
+            int[] starts = new int[N];
+            int count = 0;
+            for (int i = 0; i < N; i++) {
+                if (visited[i]) continue;
+                int j = i;
+                int length = 0;
+                while (!visited[j]) {
+                    visited[j] = true;
+                    j = source[j];
+                    length++;
+                }
+                if (length > 1) starts[count++] = i;
+            }
+            cycles = Arrays.copyOf(starts, count);
+
+            cos = new double[N];
+            sin = new double[N];
+            for (int k = 0; k < N; k++) {
+                double kth = -2 * k * Math.PI / N;
+                cos[k] = Math.cos(kth);
+                sin[k] = Math.sin(kth);
+            }
+        }
+
+        /** @return the radices of N, largest first, or null if N has other prime factors */
+        static int[] factorize(int N) {
+            int[] radices = new int[32];
+            int count = 0;
+            int rest = N;
+            while (rest % 4 == 0) { radices[count++] = 4; rest /= 4; }
+            while (rest % 2 == 0) { radices[count++] = 2; rest /= 2; }
+            while (rest % 3 == 0) { radices[count++] = 3; rest /= 3; }
+            while (rest % 5 == 0) { radices[count++] = 5; rest /= 5; }
+            return rest == 1 ? Arrays.copyOf(radices, count) : null;
+        }
+
+        static double cost(int N, int[] radices) {
+            double cost = 0;
+            for (int r : radices) {
+                switch (r) {
+                    case 2: cost += 5.0; break;
+                    case 3: cost += 8.0; break;
+                    case 4: cost += 8.5; break;
+                    default: cost += 10.0; break;
+                }
+            }
+            return cost * N;
+        }
+
+        @Override
+        public Algorithm algorithm() {
+            return Algorithm.MIXED_RADIX;
+        }
+
+        @Override
+        public void transform(double[] re, double[] im) {
+            permute(re, im);
+
+            int L = 1; // size of the blocks merged by the current stage
+            for (int r : radices) {
+                int stride = size / (r * L); // stride in the twiddle tables
+                switch (r) {
+                    case 2: radix2(re, im, L, stride); break;
+                    case 3: radix3(re, im, L, stride); break;
+                    case 4: radix4(re, im, L, stride); break;
+                    default: radix5(re, im, L, stride); break;
+                }
+                L *= r;
+            }
+        }
+
+        private void permute(double[] re, double[] im) {
+            for (int start : cycles) {
+                double r0 = re[start];
+                double i0 = im[start];
+                int i = start;
+                int j = source[i];
+                while (j != start) {
+                    re[i] = re[j];
+                    im[i] = im[j];
+                    i = j;
+                    j = source[j];
+                }
+                re[i] = r0;
+                im[i] = i0;
+            }
+        }
+
+        private void radix2(double[] re, double[] im, int L, int stride) {
+            for (int start = 0; start < size; start += 2 * L) {
+                for (int k = 0; k < L; k++) {
+                    int a = start + k, b = a + L;
+                    int w = k * stride;
+                    double br = cos[w] * re[b] - sin[w] * im[b];
+                    double bi = cos[w] * im[b] + sin[w] * re[b];
+                    re[b] = re[a] - br;
+                    im[b] = im[a] - bi;
+                    re[a] += br;
+                    im[a] += bi;
+                }
+            }
+        }
+
+        private void radix3(double[] re, double[] im, int L, int stride) {
+            for (int start = 0; start < size; start += 3 * L) {
+                for (int k = 0; k < L; k++) {
+                    int a = start + k, b = a + L, c = b + L;
+                    int w1 = k * stride, w2 = 2 * w1;
+                    double br = cos[w1] * re[b] - sin[w1] * im[b];
+                    double bi = cos[w1] * im[b] + sin[w1] * re[b];
+                    double cr = cos[w2] * re[c] - sin[w2] * im[c];
+                    double ci = cos[w2] * im[c] + sin[w2] * re[c];
+
+                    double tr = br + cr, ti = bi + ci;
+                    double dr = SIN_60 * (br - cr), di = SIN_60 * (bi - ci);
+                    double mr = re[a] - tr / 2, mi = im[a] - ti / 2;
+
+                    re[a] += tr;
+                    im[a] += ti;
+                    re[b] = mr + di;
+                    im[b] = mi - dr;
+                    re[c] = mr - di;
+                    im[c] = mi + dr;
+                }
+            }
+        }
+
+        private void radix4(double[] re, double[] im, int L, int stride) {
+            for (int start = 0; start < size; start += 4 * L) {
+                for (int k = 0; k < L; k++) {
+                    int a = start + k, b = a + L, c = b + L, d = c + L;
+                    int w1 = k * stride, w2 = 2 * w1, w3 = 3 * w1;
+                    double br = cos[w1] * re[b] - sin[w1] * im[b];
+                    double bi = cos[w1] * im[b] + sin[w1] * re[b];
+                    double cr = cos[w2] * re[c] - sin[w2] * im[c];
+                    double ci = cos[w2] * im[c] + sin[w2] * re[c];
+                    double dr = cos[w3] * re[d] - sin[w3] * im[d];
+                    double di = cos[w3] * im[d] + sin[w3] * re[d];
+
+                    double t0r = re[a] + cr, t0i = im[a] + ci;
+                    double t1r = re[a] - cr, t1i = im[a] - ci;
+                    double t2r = br + dr, t2i = bi + di;
+                    double t3r = br - dr, t3i = bi - di;
+
+                    re[a] = t0r + t2r;
+                    im[a] = t0i + t2i;
+                    re[c] = t0r - t2r;
+                    im[c] = t0i - t2i;
+                    re[b] = t1r + t3i;
+                    im[b] = t1i - t3r;
+                    re[d] = t1r - t3i;
+                    im[d] = t1i + t3r;
+                }
+            }
+        }
+
+        private void radix5(double[] re, double[] im, int L, int stride) {
+            for (int start = 0; start < size; start += 5 * L) {
+                for (int k = 0; k < L; k++) {
+                    int a = start + k, b = a + L, c = b + L, d = c + L, e = d + L;
+                    int w1 = k * stride, w2 = 2 * w1, w3 = 3 * w1, w4 = 4 * w1;
+                    double br = cos[w1] * re[b] - sin[w1] * im[b];
+                    double bi = cos[w1] * im[b] + sin[w1] * re[b];
+                    double cr = cos[w2] * re[c] - sin[w2] * im[c];
+                    double ci = cos[w2] * im[c] + sin[w2] * re[c];
+                    double dr = cos[w3] * re[d] - sin[w3] * im[d];
+                    double di = cos[w3] * im[d] + sin[w3] * re[d];
+                    double er = cos[w4] * re[e] - sin[w4] * im[e];
+                    double ei = cos[w4] * im[e] + sin[w4] * re[e];
+
+                    double s1r = br + er, s1i = bi + ei;
+                    double s2r = cr + dr, s2i = ci + di;
+                    double d1r = br - er, d1i = bi - ei;
+                    double d2r = cr - dr, d2i = ci - di;
+
+                    double m1r = re[a] + COS_72 * s1r + COS_144 * s2r;
+                    double m1i = im[a] + COS_72 * s1i + COS_144 * s2i;
+                    double m2r = re[a] + COS_144 * s1r + COS_72 * s2r;
+                    double m2i = im[a] + COS_144 * s1i + COS_72 * s2i;
+                    double n1r = SIN_72 * d1r + SIN_144 * d2r;
+                    double n1i = SIN_72 * d1i + SIN_144 * d2i;
+                    double n2r = SIN_144 * d1r - SIN_72 * d2r;
+                    double n2i = SIN_144 * d1i - SIN_72 * d2i;
+
+                    re[a] += s1r + s2r;
+                    im[a] += s1i + s2i;
+                    re[b] = m1r + n1i;
+                    im[b] = m1i - n1r;
+                    re[e] = m1r - n1i;
+                    im[e] = m1i + n1r;
+                    re[c] = m2r + n2i;
+                    im[c] = m2i - n2r;
+                    re[d] = m2r - n2i;
+                    im[d] = m2i + n2r;
+                }
+            }
+        }
+    }
+
+    /**
+     * Any size, in particular primes. The DFT is rewritten as a convolution with a chirp,
+     * which is computed with power of 2 FFTs of at least 2N-1 points.
+     */
+    private static final class Bluestein extends FFTPlan {
+        private final int M;              // size of the convolution
+        private final double[] chirpRe;   // exp(-i*pi*k^2/N)
+        private final double[] chirpIm;
+        private final double[] filterRe;  // FFT of the conjugated chirp, scaled by 1/M
+        private final double[] filterIm;
+        private final ThreadLocal<double[][]> work;
+
+        Bluestein(int N) {
+            super(N);
+            M = convolutionSize(N);
+
+            chirpRe = new double[N];
+            chirpIm = new double[N];
+            for (int k = 0; k < N; k++) {
+                // k^2 modulo 2N keeps the angle small and precise
+                double kth = -Math.PI * ((long) k * k % (2L * N)) / N;
+                chirpRe[k] = Math.cos(kth);
+                chirpIm[k] = Math.sin(kth);
+            }
+
+            filterRe = new double[M];
+            filterIm = new double[M];
+            for (int k = 0; k < N; k++) {
+                filterRe[k] = chirpRe[k] / M;
+                filterIm[k] = -chirpIm[k] / M;
+                if (k > 0) {
+                    filterRe[M - k] = filterRe[k];
+                    filterIm[M - k] = filterIm[k];
+                }
+            }
+            FFT.radix2(filterRe, filterIm, M);
+
+            work = ThreadLocal.withInitial(() -> new double[][]{new double[M], new double[M]});
+        }
+
+        static int convolutionSize(int N) {
+            int M = 1;
+            while (M < 2 * N - 1) {
+                M *= 2;
+            }
+            return M;
+        }
+
+        static double cost(int N) {
+            int M = convolutionSize(N);
+            return 2 * Radix2.cost(M) + 6.0 * M + 12.0 * N;
+        }
+
+        @Override
+        public Algorithm algorithm() {
+            return Algorithm.BLUESTEIN;
+        }
+
+        @Override
+        public void transform(double[] re, double[] im) {
+            double[][] buffers = work.get();
+            double[] ar = buffers[0];
+            double[] ai = buffers[1];
+
+            for (int k = 0; k < size; k++) {
+                ar[k] = re[k] * chirpRe[k] - im[k] * chirpIm[k];
+                ai[k] = re[k] * chirpIm[k] + im[k] * chirpRe[k];
+            }
+            Arrays.fill(ar, size, M, 0);
+            Arrays.fill(ai, size, M, 0);
+
+            FFT.radix2(ar, ai, M);
+            for (int k = 0; k < M; k++) {
+                double r = ar[k] * filterRe[k] - ai[k] * filterIm[k];
+                ai[k] = ar[k] * filterIm[k] + ai[k] * filterRe[k];
+                ar[k] = r;
+            }
+            // Inverse transform, the 1/M factor is already in the filter
+            FFT.radix2(ai, ar, M);
+
+            for (int k = 0; k < size; k++) {
+                re[k] = ar[k] * chirpRe[k] - ai[k] * chirpIm[k];
+                im[k] = ar[k] * chirpIm[k] + ai[k] * chirpRe[k];
+            }
+        }
+    }
+}
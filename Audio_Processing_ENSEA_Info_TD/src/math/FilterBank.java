@@ -0,0 +1,159 @@
+package math;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Weights turning the fftSize/2+1 magnitudes of a spectrum into a smaller number of bands, on a
+ * {@link FrequencyScale}. Each band only weights a few bins, so the weights are kept as a sparse
+ * matrix in compressed rows (CSR): the bins and weights of band b are at indices rowStart[b] to
+ * rowStart[b+1]-1. Applying it is a single multiply-accumulate over the non-zero weights.
+ * The weights of each band sum to 1, so a band holds the average magnitude of its bins; a band
+ * narrower than the bin spacing interpolates between the two bins around its center.
+ * Filter banks are built once per configuration and cached, and can be shared between threads.
+ */
+public final class FilterBank {
+    private static final ConcurrentHashMap<Key, FilterBank> cache = new ConcurrentHashMap<>();
+
+    private final int bands;
+    private final int[] rowStart; // bands+1 values
+    private final int[] bins;
+    private final double[] weights;
+
+    private FilterBank(int[] rowStart, int[] bins, double[] weights) {
+        this.bands = rowStart.length - 1;
+        this.rowStart = rowStart;
+        this.bins = bins;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns the filter bank of a configuration, built the first time it is asked for.
+     * @param fftSize the size of the FFT behind the magnitudes
+     * @param bands the number of bands, from the lowest frequency to the highest
+     * @param minFrequency the lower edge of the first band, in Hz
+     * @param maxFrequency the upper edge of the last band, in Hz
+     */
+    public static FilterBank of(FrequencyScale scale, int fftSize, float sampleRate, int bands,
+                                double minFrequency, double maxFrequency) {
+        return cache.computeIfAbsent(new Key(scale, fftSize, sampleRate, bands, minFrequency, maxFrequency),
+                key -> build(scale, fftSize, sampleRate, bands, minFrequency, maxFrequency));
+    }
+
+    private static FilterBank build(FrequencyScale scale, int fftSize, float sampleRate, int bands,
+                                    double minFrequency, double maxFrequency) {
+        if (bands < 1 || fftSize < 2) {
+            throw new IllegalArgumentException("At least one band and two samples are needed");
+        }
+        double binsPerHz = fftSize / (double) sampleRate;
+        int lastBin = fftSize / 2;
+        double low = scale.toScale(minFrequency);
+        double step = (scale.toScale(maxFrequency) - low) / bands;
+
+        // Sized for the worst case, then trimmed
+        int[] rowStart = new int[bands + 1];
+        int[] bins = new int[bands * 2 + (lastBin + 1) * 3];
+        double[] weights = new double[bins.length];
+        int count = 0;
+
+        for (int b = 0; b < bands; b++) {
+            rowStart[b] = count;
+            // Overlapping bands reach the centers of their neighbours, the others stop at their edges
+            double from = scale.isOverlapping() ? low + (b - 0.5) * step : low + b * step;
+            double to = scale.isOverlapping() ? low + (b + 1.5) * step : low + (b + 1) * step;
+            double start = scale.fromScale(from) * binsPerHz;
+            double end = scale.fromScale(to) * binsPerHz;
+
+            double sum = 0;
+            int first = count;
+            // The upper edge belongs to the next band
+            for (int k = Math.max(0, (int) Math.ceil(start)); k < end && k <= lastBin; k++) {
+                double position = (scale.toScale(k / binsPerHz) - from) / (to - from);
+                double weight = scale.weight(Math.max(0, Math.min(1, position)));
+                if (weight > 0) {
+                    bins[count] = k;
+                    weights[count] = weight;
+                    sum += weight;
+                    count++;
+                }
+            }
+
+            if (sum > 0) {
+                for (int i = first; i < count; i++) {
+                    weights[i] /= sum;
+                }
+            } else {
+                // No bin inside the band: linear interpolation at its center
+                double center = Math.min(lastBin, scale.fromScale(low + (b + 0.5) * step) * binsPerHz);
+                int k = Math.min(lastBin - 1, (int) center);
+                double fraction = center - k;
+                bins[count] = k;
+                weights[count++] = 1 - fraction;
+                bins[count] = k + 1;
+                weights[count++] = fraction;
+            }
+        }
+        rowStart[bands] = count;
+
+        int[] trimmedBins = new int[count];
+        double[] trimmedWeights = new double[count];
+        System.arraycopy(bins, 0, trimmedBins, 0, count);
+        System.arraycopy(weights, 0, trimmedWeights, 0, count);
+        return new FilterBank(rowStart, trimmedBins, trimmedWeights);
+    }
+
+    /**
+     * Computes the bands of a spectrum. Nothing is allocated.
+     * @param magnitudes the fftSize/2+1 magnitudes, or any value per bin
+     * @param out receives the bands, from the lowest frequency
+     */
+    public void apply(double[] magnitudes, double[] out) {
+        for (int b = 0; b < bands; b++) {
+            double sum = 0;
+            for (int i = rowStart[b]; i < rowStart[b + 1]; i++) {
+                sum += weights[i] * magnitudes[bins[i]];
+            }
+            out[b] = sum;
+        }
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    /** @return the number of non-zero weights, the cost of apply() */
+    public int getWeightCount() {
+        return weights.length;
+    }
+
+    /** The configuration a filter bank is cached under. */
+    private static final class Key {
+        private final FrequencyScale scale;
+        private final int fftSize;
+        private final float sampleRate;
+        private final int bands;
+        private final double minFrequency, maxFrequency;
+
+        Key(FrequencyScale scale, int fftSize, float sampleRate, int bands, double minFrequency, double maxFrequency) {
+            this.scale = scale;
+            this.fftSize = fftSize;
+            this.sampleRate = sampleRate;
+            this.bands = bands;
+            this.minFrequency = minFrequency;
+            this.maxFrequency = maxFrequency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return scale == other.scale && fftSize == other.fftSize && sampleRate == other.sampleRate
+                    && bands == other.bands && minFrequency == other.minFrequency && maxFrequency == other.maxFrequency;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scale, fftSize, sampleRate, bands, minFrequency, maxFrequency);
+        }
+    }
+}
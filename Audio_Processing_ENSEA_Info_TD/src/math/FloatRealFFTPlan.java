@@ -0,0 +1,79 @@
+package math;
+
+/**
+ * Single precision version of {@link RealFFTPlan}. Built by {@link FloatFFT#realPlan(int)}, can be
+ * shared between threads.
+ */
+public class FloatRealFFTPlan {
+    private final int N;
+    private final int M;           // N/2
+    private final float[] cos;     // cos(-2*pi*k/N), for k from 0 to N/4
+    private final float[] sin;     // sin(-2*pi*k/N), for k from 0 to N/4
+
+    FloatRealFFTPlan(int N) {
+        if (N < 2 || N % 2 != 0) {
+            throw new IllegalArgumentException("N must be even");
+        }
+        this.N = N;
+        this.M = N / 2;
+
+        cos = new float[N / 4 + 1];
+        sin = new float[N / 4 + 1];
+        for (int k = 0; k <= N / 4; k++) {
+            double kth = -2 * k * Math.PI / N;
+            cos[k] = (float) Math.cos(kth);
+            sin[k] = (float) Math.sin(kth);
+        }
+    }
+
+    /** @return the number of real samples of the transform */
+    public int size() {
+        return N;
+    }
+
+    /**
+     * Computes the spectrum of the first N values of x. Nothing is allocated when N/2 is a power of 2.
+     * @param re receives the real part of bins 0 to N/2, must hold at least N/2+1 values
+     * @param im receives the imaginary part of bins 0 to N/2, must hold at least N/2+1 values
+     */
+    public void transform(float[] x, float[] re, float[] im) {
+        if (x.length < N) {
+            throw new IllegalArgumentException("x must hold N values");
+        }
+        if (re.length <= M || im.length <= M) {
+            throw new IllegalArgumentException("Output arrays must hold N/2+1 values");
+        }
+
+        // Even samples as the real part, odd samples as the imaginary part
+        for (int k = 0; k < M; k++) {
+            re[k] = x[2 * k];
+            im[k] = x[2 * k + 1];
+        }
+        FloatFFT.transform(re, im, M);
+
+        // Split Z into the spectra of the even (E) and odd (O) samples, then X[k] = E[k] + W^k O[k]
+        float z0 = re[0];
+        re[0] = z0 + im[0];
+        re[M] = z0 - im[0];
+        im[0] = 0;
+        im[M] = 0;
+
+        for (int k = 1; k <= M / 2; k++) {
+            int j = M - k;
+            float er = (re[k] + re[j]) / 2;
+            float ei = (im[k] - im[j]) / 2;
+            float or = (im[k] + im[j]) / 2;
+            float oi = (re[j] - re[k]) / 2;
+
+            // W^k O[k]
+            float wr = cos[k] * or - sin[k] * oi;
+            float wi = cos[k] * oi + sin[k] * or;
+
+            // X[N/2-k] = conj(E[k] - W^k O[k]), written first as j may be equal to k
+            re[j] = er - wr;
+            im[j] = wi - ei;
+            re[k] = er + wr;
+            im[k] = ei + wi;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package math;
+
+/**
+ * Ways of spreading frequency bands over a range, for spectrum displays and analyses. A scale maps
+ * frequencies to a position where the bands are evenly spaced, and gives the shape of each band
+ * over the FFT bins; {@link FilterBank#of} turns that into the weights of each band.
+ */
+public enum FrequencyScale {
+    /** Bands of equal width in Hz, the FFT bins themselves when there are as many. */
+    LINEAR {
+        @Override
+        public double toScale(double frequency) {
+            return frequency;
+        }
+
+        @Override
+        public double fromScale(double position) {
+            return position;
+        }
+    },
+
+    /** Bands of equal width in octaves, each one the average of its bins. */
+    LOG {
+        @Override
+        public double toScale(double frequency) {
+            return Math.log(Math.max(frequency, MIN_LOG_FREQUENCY));
+        }
+
+        @Override
+        public double fromScale(double position) {
+            return Math.exp(position);
+        }
+    },
+
+    /** Triangular filters evenly spaced in mels, the perceived pitch, each reaching its neighbours' centers. */
+    MEL {
+        @Override
+        public double toScale(double frequency) {
+            return 2595 * Math.log10(1 + frequency / 700);
+        }
+
+        @Override
+        public double fromScale(double position) {
+            return 700 * (Math.pow(10, position / 2595) - 1);
+        }
+
+        @Override
+        double weight(double position) {
+            return 1 - Math.abs(2 * position - 1);
+        }
+
+        @Override
+        boolean isOverlapping() {
+            return true;
+        }
+    },
+
+    /**
+     * Bands evenly spaced in octaves whose width is proportional to their frequency, with a Hann
+     * shape in log frequency reaching the neighbours' centers, as the kernels of a constant-Q transform.
+     */
+    CONSTANT_Q {
+        @Override
+        public double toScale(double frequency) {
+            return LOG.toScale(frequency);
+        }
+
+        @Override
+        public double fromScale(double position) {
+            return LOG.fromScale(position);
+        }
+
+        @Override
+        double weight(double position) {
+            return 0.5 - 0.5 * Math.cos(2 * Math.PI * position);
+        }
+
+        @Override
+        boolean isOverlapping() {
+            return true;
+        }
+    };
+
+    /** The frequency below which logarithmic scales do not go, in Hz. */
+    public static final double MIN_LOG_FREQUENCY = 20;
+
+    /** @return the position of a frequency on the scale */
+    public abstract double toScale(double frequency);
+
+    /** @return the frequency at a position of the scale */
+    public abstract double fromScale(double position);
+
+    /**
+     * @param position where a bin falls within the band, from 0 at its lower edge to 1 at its upper edge
+     * @return the weight of the bin before normalization; flat by default
+     */
+    double weight(double position) {
+        return 1;
+    }
+
+    /** @return true if a band spans its neighbours' centers rather than the space between them */
+    boolean isOverlapping() {
+        return false;
+    }
+}
@@ -0,0 +1,165 @@
+package math;
+
+/**
+ * The innermost per-sample loops of the processing: PCM conversion, sum of squares, gain and mix,
+ * the radix-2 butterflies and the complex multiply-accumulate of spectra. This class is the scalar
+ * implementation; {@link #get()} returns the SIMD one when the Vector API is available (run with
+ * --add-modules jdk.incubator.vector), and this one otherwise. Both give bit for bit the same results:
+ * the SIMD loops do the same operations in the same order, and the sum of squares always uses four
+ * partial sums.
+ * Setting the system property audio.kernels to "scalar" forces the scalar implementation.
+ */
+public class Kernels {
+    private static final Kernels SCALAR = new Kernels();
+    private static final Kernels INSTANCE = select();
+
+    Kernels() {
+    }
+
+    /** @return the implementation chosen at startup */
+    public static Kernels get() {
+        return INSTANCE;
+    }
+
+    /** @return the scalar implementation, whatever the one chosen at startup */
+    public static Kernels scalar() {
+        return SCALAR;
+    }
+
+    private static Kernels select() {
+        if ("scalar".equals(System.getProperty("audio.kernels"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            // Loaded by name, as this class must not depend on the incubator module
+            return (Kernels) Class.forName("math.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return SCALAR;
+        }
+    }
+
+    /** @return "scalar", or the name of the SIMD implementation with its vector size */
+    public String getName() {
+        return "scalar";
+    }
+
+    /** Converts count signed 16 bits big endian samples into doubles in [-1, 1[. */
+    public void decodePCM16BE(byte[] bytes, double[] samples, int count) {
+        for (int i = 0; i < count; i++) {
+            samples[i] = ((bytes[2 * i] << 8) | (bytes[2 * i + 1] & 0xFF)) / 32768.0;
+        }
+    }
+
+    /**
+     * Converts count doubles into signed 16 bits big endian samples. Values out of [-1, 1], which a gain
+     * easily gives, saturate instead of wrapping around to the opposite sign.
+     */
+    public void encodePCM16BE(double[] samples, byte[] bytes, int count) {
+        for (int i = 0; i < count; i++) {
+            // Scale the double value to the range of shorts (-32767 to 32767)
+            short scaledValue = (short) (saturate(samples[i]) * Short.MAX_VALUE);
+            bytes[2 * i] = (byte) (scaledValue >> 8);
+            bytes[2 * i + 1] = (byte) scaledValue;
+        }
+    }
+
+    /** @return the sample limited to [-1, 1], before it is scaled and cast to a PCM integer */
+    public static double saturate(double sample) {
+        return Math.max(-1.0, Math.min(1.0, sample));
+    }
+
+    /** Single precision version of saturate(double). */
+    public static float saturate(float sample) {
+        return Math.max(-1f, Math.min(1f, sample));
+    }
+
+    /** Little endian version of decodePCM16BE(), the byte order of most sound cards. */
+    public void decodePCM16LE(byte[] bytes, double[] samples, int count) {
+        for (int i = 0; i < count; i++) {
+            samples[i] = ((bytes[2 * i + 1] << 8) | (bytes[2 * i] & 0xFF)) / 32768.0;
+        }
+    }
+
+    /** Little endian version of encodePCM16BE(). */
+    public void encodePCM16LE(double[] samples, byte[] bytes, int count) {
+        for (int i = 0; i < count; i++) {
+            short scaledValue = (short) (saturate(samples[i]) * Short.MAX_VALUE);
+            bytes[2 * i] = (byte) scaledValue;
+            bytes[2 * i + 1] = (byte) (scaledValue >> 8);
+        }
+    }
+
+    /**
+     * @return the sum of the squares of the first count values. Sample i is added to the partial sum
+     * i % 4, and the result is (s0 + s1) + (s2 + s3), which also lets the scalar loop run four
+     * additions at once.
+     */
+    public double sumOfSquares(double[] x, int count) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < count; i += 4) {
+            s0 += x[i] * x[i];
+            s1 += x[i + 1] * x[i + 1];
+            s2 += x[i + 2] * x[i + 2];
+            s3 += x[i + 3] * x[i + 3];
+        }
+        if (i < count) s0 += x[i] * x[i];
+        if (i + 1 < count) s1 += x[i + 1] * x[i + 1];
+        if (i + 2 < count) s2 += x[i + 2] * x[i + 2];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /** Multiplies the first count values of x by gain. */
+    public void scale(double[] x, int count, double gain) {
+        for (int i = 0; i < count; i++) {
+            x[i] *= gain;
+        }
+    }
+
+    /** out[outOffset + i] = gx * x[xOffset + i] + gy * y[yOffset + i], for i from 0 to count-1. out may be x or y. */
+    public void mix(double[] x, int xOffset, double gx, double[] y, int yOffset, double gy,
+                    double[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = gx * x[xOffset + i] + gy * y[yOffset + i];
+        }
+    }
+
+    /**
+     * Complex multiply-accumulate of two spectra: y[i] += a[aOffset + i] * b[bOffset + i], for i from
+     * 0 to count-1, each given by its real and imaginary parts.
+     */
+    public void multiplyAdd(double[] aRe, double[] aIm, int aOffset, double[] bRe, double[] bIm, int bOffset,
+                            double[] yRe, double[] yIm, int count) {
+        for (int i = 0; i < count; i++) {
+            double ar = aRe[aOffset + i], ai = aIm[aOffset + i];
+            double br = bRe[bOffset + i], bi = bIm[bOffset + i];
+            yRe[i] += ar * br - ai * bi;
+            yIm[i] += ar * bi + ai * br;
+        }
+    }
+
+    /**
+     * One stage of a radix-2 FFT of N points: the butterflies between the values half apart, in every
+     * block of 2*half values.
+     * @param cos the twiddles of this stage, cos(-pi*k/half) for k < half, from index half-1
+     * @param sin same for the sines
+     */
+    public void butterflies(double[] re, double[] im, int N, int half, double[] cos, double[] sin) {
+        int offset = half - 1;
+        for (int start = 0; start < N; start += 2 * half) {
+            for (int k = 0; k < half; k++) {
+                int a = start + k;
+                int b = a + half;
+                double c = cos[offset + k];
+                double s = sin[offset + k];
+                double tr = c * re[b] - s * im[b];
+                double ti = c * im[b] + s * re[b];
+                re[b] = re[a] - tr;
+                im[b] = im[a] - ti;
+                re[a] += tr;
+                im[a] += ti;
+            }
+        }
+    }
+}
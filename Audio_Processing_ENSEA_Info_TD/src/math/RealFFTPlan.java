@@ -0,0 +1,130 @@
+package math;
+
+/**
+ * The FFT of N real samples, N being even. The samples are packed into an N/2 points complex FFT,
+ * which is then split into the N/2+1 non-redundant bins of the spectrum, for half the work and
+ * memory of a complex FFT of N points. The inverse goes back from these N/2+1 bins to the N samples
+ * the same way. Built by {@link FFT#realPlan(int)}, can be shared between threads.
+ */
+public class RealFFTPlan {
+    private final int N;
+    private final int M;           // N/2
+    private final FFTPlan half;    // complex FFT of N/2 points
+    private final double[] cos;    // cos(-2*pi*k/N), for k from 0 to N/4
+    private final double[] sin;    // sin(-2*pi*k/N), for k from 0 to N/4
+
+    RealFFTPlan(int N) {
+        if (N < 2 || N % 2 != 0) {
+            throw new IllegalArgumentException("N must be even");
+        }
+        this.N = N;
+        this.M = N / 2;
+        this.half = FFT.plan(M);
+
+        cos = new double[N / 4 + 1];
+        sin = new double[N / 4 + 1];
+        for (int k = 0; k <= N / 4; k++) {
+            double kth = -2 * k * Math.PI / N;
+            cos[k] = Math.cos(kth);
+            sin[k] = Math.sin(kth);
+        }
+    }
+
+    /** @return the number of real samples of the transform */
+    public int size() {
+        return N;
+    }
+
+    /**
+     * Computes the spectrum of the first N values of x. Nothing is allocated.
+     * @param re receives the real part of bins 0 to N/2, must hold at least N/2+1 values
+     * @param im receives the imaginary part of bins 0 to N/2, must hold at least N/2+1 values
+     */
+    public void transform(double[] x, double[] re, double[] im) {
+        if (x.length < N) {
+            throw new IllegalArgumentException("x must hold N values");
+        }
+        if (re.length <= M || im.length <= M) {
+            throw new IllegalArgumentException("Output arrays must hold N/2+1 values");
+        }
+
+        // Even samples as the real part, odd samples as the imaginary part
+        for (int k = 0; k < M; k++) {
+            re[k] = x[2 * k];
+            im[k] = x[2 * k + 1];
+        }
+        half.transform(re, im);
+
+        // Split Z into the spectra of the even (E) and odd (O) samples, then X[k] = E[k] + W^k O[k]
+        double z0 = re[0];
+        re[0] = z0 + im[0];
+        re[M] = z0 - im[0];
+        im[0] = 0;
+        im[M] = 0;
+
+        for (int k = 1; k <= M / 2; k++) {
+            int j = M - k;
+            double er = (re[k] + re[j]) / 2;
+            double ei = (im[k] - im[j]) / 2;
+            double or = (im[k] + im[j]) / 2;
+            double oi = (re[j] - re[k]) / 2;
+
+            // W^k O[k]
+            double wr = cos[k] * or - sin[k] * oi;
+            double wi = cos[k] * oi + sin[k] * or;
+
+            // X[N/2-k] = conj(E[k] - W^k O[k]), written first as j may be equal to k
+            re[j] = er - wr;
+            im[j] = wi - ei;
+            re[k] = er + wr;
+            im[k] = ei + wi;
+        }
+    }
+
+    /**
+     * Computes the N real samples whose spectrum is given by bins 0 to N/2, scaled by 1/N so that the
+     * inverse of transform(x) gives x back. The imaginary parts of bins 0 and N/2 are ignored, they
+     * are 0 for the spectrum of real samples. Nothing is allocated.
+     * @param re the real part of bins 0 to N/2, overwritten
+     * @param im the imaginary part of bins 0 to N/2, overwritten
+     * @param x receives the N samples
+     */
+    public void inverse(double[] re, double[] im, double[] x) {
+        if (x.length < N) {
+            throw new IllegalArgumentException("x must hold N values");
+        }
+        if (re.length <= M || im.length <= M) {
+            throw new IllegalArgumentException("Input arrays must hold N/2+1 values");
+        }
+
+        // Back to Z[k] = E[k] + i O[k], with E[k] = (X[k] + conj(X[N/2-k])) / 2
+        // and O[k] = (X[k] - conj(X[N/2-k])) / 2 W^-k, the reverse of the split in transform()
+        double x0 = re[0];
+        re[0] = (x0 + re[M]) / 2;
+        im[0] = (x0 - re[M]) / 2;
+
+        for (int k = 1; k <= M / 2; k++) {
+            int j = M - k;
+            double er = (re[k] + re[j]) / 2;
+            double ei = (im[k] - im[j]) / 2;
+            double dr = (re[k] - re[j]) / 2;
+            double di = (im[k] + im[j]) / 2;
+
+            // O[k] = D[k] W^-k, and O[N/2-k] = conj(O[k])
+            double or = dr * cos[k] + di * sin[k];
+            double oi = di * cos[k] - dr * sin[k];
+
+            re[k] = er - oi;
+            im[k] = ei + or;
+            re[j] = er + oi;
+            im[j] = or - ei;
+        }
+
+        // Even samples come back as the real part, odd samples as the imaginary part
+        half.inverse(re, im);
+        for (int k = 0; k < M; k++) {
+            x[2 * k] = re[k];
+            x[2 * k + 1] = im[k];
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * SIMD implementation of {@link Kernels} with the Vector API. Only loaded through Kernels.get(), when
+ * the jdk.incubator.vector module is there. Each loop processes whole vectors and leaves the
+ * remaining values to the scalar code, which does exactly the same operations.
+ */
+class VectorKernels extends Kernels {
+    // At least 4 lanes, so that the shorts of a vector of doubles still make a valid vector shape
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED.length() >= 4
+            ? DoubleVector.SPECIES_PREFERRED : DoubleVector.SPECIES_256;
+    private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, VectorShape.forBitSize(16 * DOUBLES.length()));
+    // Four lanes, one per partial sum of sumOfSquares
+    private static final VectorSpecies<Double> SUMS = DoubleVector.SPECIES_256;
+
+    private static final int LANES = DOUBLES.length();
+
+    @Override
+    public String getName() {
+        return "vector (" + LANES + " doubles)";
+    }
+
+    @Override
+    public void decodePCM16BE(byte[] bytes, double[] samples, int count) {
+        int vectors = count - count % LANES;
+        for (int i = 0; i < vectors; i += LANES) {
+            ShortVector pcm = ShortVector.fromByteArray(SHORTS, bytes, 2 * i, ByteOrder.BIG_ENDIAN);
+            // Multiplying by 2^-15 is exact, just as the division of the scalar code
+            ((DoubleVector) pcm.convertShape(VectorOperators.S2D, DOUBLES, 0))
+                    .mul(1 / 32768.0)
+                    .intoArray(samples, i);
+        }
+        for (int i = vectors; i < count; i++) {
+            samples[i] = ((bytes[2 * i] << 8) | (bytes[2 * i + 1] & 0xFF)) / 32768.0;
+        }
+    }
+
+    @Override
+    public void decodePCM16LE(byte[] bytes, double[] samples, int count) {
+        int vectors = count - count % LANES;
+        for (int i = 0; i < vectors; i += LANES) {
+            ShortVector pcm = ShortVector.fromByteArray(SHORTS, bytes, 2 * i, ByteOrder.LITTLE_ENDIAN);
+            ((DoubleVector) pcm.convertShape(VectorOperators.S2D, DOUBLES, 0))
+                    .mul(1 / 32768.0)
+                    .intoArray(samples, i);
+        }
+        for (int i = vectors; i < count; i++) {
+            samples[i] = ((bytes[2 * i + 1] << 8) | (bytes[2 * i] & 0xFF)) / 32768.0;
+        }
+    }
+
+    // The encodings stay scalar: JDK 17 does not compile the double to integer lane conversions
+    // into SIMD instructions, the vectors would be allocated on every call
+
+    @Override
+    public double sumOfSquares(double[] x, int count) {
+        DoubleVector sums = DoubleVector.zero(SUMS);
+        int vectors = count - count % 4;
+        for (int i = 0; i < vectors; i += 4) {
+            DoubleVector v = DoubleVector.fromArray(SUMS, x, i);
+            sums = sums.add(v.mul(v));
+        }
+        double s0 = sums.lane(0), s1 = sums.lane(1), s2 = sums.lane(2), s3 = sums.lane(3);
+        int i = vectors;
+        if (i < count) s0 += x[i] * x[i];
+        if (i + 1 < count) s1 += x[i + 1] * x[i + 1];
+        if (i + 2 < count) s2 += x[i + 2] * x[i + 2];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public void scale(double[] x, int count, double gain) {
+        int vectors = count - count % LANES;
+        for (int i = 0; i < vectors; i += LANES) {
+            DoubleVector.fromArray(DOUBLES, x, i).mul(gain).intoArray(x, i);
+        }
+        for (int i = vectors; i < count; i++) {
+            x[i] *= gain;
+        }
+    }
+
+    @Override
+    public void mix(double[] x, int xOffset, double gx, double[] y, int yOffset, double gy,
+                    double[] out, int outOffset, int count) {
+        int vectors = count - count % LANES;
+        for (int i = 0; i < vectors; i += LANES) {
+            DoubleVector.fromArray(DOUBLES, x, xOffset + i).mul(gx)
+                    .add(DoubleVector.fromArray(DOUBLES, y, yOffset + i).mul(gy))
+                    .intoArray(out, outOffset + i);
+        }
+        for (int i = vectors; i < count; i++) {
+            out[outOffset + i] = gx * x[xOffset + i] + gy * y[yOffset + i];
+        }
+    }
+
+    @Override
+    public void multiplyAdd(double[] aRe, double[] aIm, int aOffset, double[] bRe, double[] bIm, int bOffset,
+                            double[] yRe, double[] yIm, int count) {
+        int vectors = count - count % LANES;
+        for (int i = 0; i < vectors; i += LANES) {
+            DoubleVector ar = DoubleVector.fromArray(DOUBLES, aRe, aOffset + i);
+            DoubleVector ai = DoubleVector.fromArray(DOUBLES, aIm, aOffset + i);
+            DoubleVector br = DoubleVector.fromArray(DOUBLES, bRe, bOffset + i);
+            DoubleVector bi = DoubleVector.fromArray(DOUBLES, bIm, bOffset + i);
+            DoubleVector.fromArray(DOUBLES, yRe, i).add(ar.mul(br).sub(ai.mul(bi))).intoArray(yRe, i);
+            DoubleVector.fromArray(DOUBLES, yIm, i).add(ar.mul(bi).add(ai.mul(br))).intoArray(yIm, i);
+        }
+        for (int i = vectors; i < count; i++) {
+            double ar = aRe[aOffset + i], ai = aIm[aOffset + i];
+            double br = bRe[bOffset + i], bi = bIm[bOffset + i];
+            yRe[i] += ar * br - ai * bi;
+            yIm[i] += ar * bi + ai * br;
+        }
+    }
+
+    @Override
+    public void butterflies(double[] re, double[] im, int N, int half, double[] cos, double[] sin) {
+        if (half < LANES) {
+            // First stages, the blocks are too short for a vector
+            super.butterflies(re, im, N, half, cos, sin);
+            return;
+        }
+
+        int offset = half - 1;
+        for (int start = 0; start < N; start += 2 * half) {
+            // half is a power of 2 at least as large as LANES, so there is no remainder
+            for (int k = 0; k < half; k += LANES) {
+                int a = start + k;
+                int b = a + half;
+                DoubleVector c = DoubleVector.fromArray(DOUBLES, cos, offset + k);
+                DoubleVector s = DoubleVector.fromArray(DOUBLES, sin, offset + k);
+                DoubleVector rb = DoubleVector.fromArray(DOUBLES, re, b);
+                DoubleVector ib = DoubleVector.fromArray(DOUBLES, im, b);
+                DoubleVector ra = DoubleVector.fromArray(DOUBLES, re, a);
+                DoubleVector ia = DoubleVector.fromArray(DOUBLES, im, a);
+
+                DoubleVector tr = c.mul(rb).sub(s.mul(ib));
+                DoubleVector ti = c.mul(ib).add(s.mul(rb));
+                ra.sub(tr).intoArray(re, b);
+                ia.sub(ti).intoArray(im, b);
+                ra.add(tr).intoArray(re, a);
+                ia.add(ti).intoArray(im, a);
+            }
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package ui;
 
 import audio.AudioIO;
+import audio.AudioMetrics;
+import audio.AudioPipeline;
 import audio.AudioProcessor;
+import audio.FrameExchange;
+import audio.FrameSizeController;
+import audio.PitchDetector;
+import audio.STFTAnalyzer;
+import audio.SpectrumCache;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.scene.Group;
 import javafx.scene.Node;
@@ -14,22 +22,43 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import math.FrequencyScale;
+import math.Precision;
+import math.Window;
 import javax.sound.sampled.*;
 
 
 public class Main extends Application {
+    private static final double TARGET_LATENCY = 0.05; // seconds, for the adaptive frame size
+    private static final double MAX_XRUNS_PER_MINUTE = 1;
+    private static final double CROSSFADE = 0.01; // seconds, when devices change while running
+    private static final double PITCH_HOP = 0.005; // seconds between two pitch analyses
+    private static final double MIN_CLARITY = 0.8; // below, the pitch is not displayed
+    private static final int SPECTRUM_FFT_SIZE = 2048;
+    private static final double SPECTRUM_HOP = 0.01; // seconds between two spectra, one column of the spectrograms
+    private static final int PIPELINE_DEPTH = 2; // frames of each queue of the pipeline, with --pipeline
+
     private AudioProcessor audioProcessor;
-    private AudioFormat audioFormat;
+    private boolean isPipelined; // capture, processing and playback on their own threads, see AudioPipeline
+    private AudioPipeline pipeline; // the running pipeline, null if none
+    private STFTAnalyzer inputAnalyzer; // behind the spectrograms, given to the audioProcessor only while one is shown
+    private SpectrumCache inputSpectrum; // spectra of the input, shared by the spectrograms
+    private AudioFormat inputFormat;
+    private AudioFormat outputFormat;
+    private String inputMixer, outputMixer; // of the lines in use
     private ToolBar toolBar;
     private Node statusBar;
     private Node mainContent;
     private BorderPane root;
 
     /**
-     * Start function of the application
+     * Start function of the application. With the --float parameter, the input is captured and
+     * analysed in single precision (see AudioProcessor). With --pipeline, an AudioPipeline runs the
+     * processing: the adaptive frame size is not available, and a change in the toolbar restarts it.
      */
     @Override
     public void start(Stage primaryStage) {
+        isPipelined = getParameters().getRaw().contains("--pipeline");
 
         try {
             root = new BorderPane();
@@ -41,14 +70,13 @@ public class Main extends Application {
             e.printStackTrace();
         }
 
-        // TODO - Change HardCoded Format to Interface-defined
-        this.audioFormat = new AudioFormat(44000.0f, 16, 1, true, true);
-
         TargetDataLine audioInput = TargetDataLineFromToolBar(this.toolBar);
         SourceDataLine audioOutput = SourceDataLineFromToolBar(this.toolBar);
         int FrameSize = FrameSizeFromToolBar(this.toolBar);
 
-        this.audioProcessor = new AudioProcessor(audioInput, audioOutput, FrameSize);
+        Precision precision = getParameters().getRaw().contains("--float") ? Precision.FLOAT : Precision.DOUBLE;
+        this.audioProcessor = new AudioProcessor(audioInput, audioOutput, FrameSize, precision);
+        updateAnalyzer();
 
 
         try {
@@ -76,10 +104,162 @@ public class Main extends Application {
         TargetDataLine audioInput = TargetDataLineFromToolBar(this.toolBar);
         SourceDataLine audioOutput = SourceDataLineFromToolBar(this.toolBar);
         int FrameSize = FrameSizeFromToolBar(this.toolBar);
+        this.inputMixer = MixerFromToolBar(this.toolBar, "Input Device : ");
+        this.outputMixer = MixerFromToolBar(this.toolBar, "Output Device : ");
 
         this.audioProcessor.setAudioInput(audioInput);
         this.audioProcessor.setAudioOutput(audioOutput);
         this.audioProcessor.setFrameSize(FrameSize);
+        updatePitchDetector();
+        updateAnalyzer();
+
+        // In adaptive mode, the frame size typed in is only the first one tried
+        if (AdaptiveFromToolBar(this.toolBar) && !isPipelined) {
+            this.audioProcessor.setFrameSizeController(new FrameSizeController(FrameSize, TARGET_LATENCY, MAX_XRUNS_PER_MINUTE));
+        } else {
+            this.audioProcessor.setFrameSizeController(null);
+        }
+    }
+
+    /** Applies the toolbar to the audioProcessor, opens the lines and starts the audio thread, or the pipeline. */
+    private void startProcessor() {
+        updateProcessor();
+
+        try {
+            openLine(this.audioProcessor.getAudioOutput(), this.outputFormat);
+            openLine(this.audioProcessor.getAudioInput(), this.inputFormat);
+        } catch (LineUnavailableException e) {
+            throw new RuntimeException(e);
+        }
+
+        System.out.println("Starting the audioProcessor !");
+        if (isPipelined) {
+            pipeline = new AudioPipeline(audioProcessor, PIPELINE_DEPTH);
+            pipeline.start();
+        } else {
+            audioProcessor.start();
+        }
+    }
+
+    /** Stops the audio thread or the pipeline, and closes the lines. */
+    private void stopProcessor() {
+        if (pipeline == null) {
+            audioProcessor.terminateAudioThread();
+            return;
+        }
+        try {
+            pipeline.terminate();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pipeline = null;
+    }
+
+    /**
+     * Applies the toolbar to the running audioProcessor without stopping it: the lines of the devices
+     * that changed are opened here, and the audioProcessor switches to them between two frames.
+     * A new format on the same device (e.g. other channels) would need a second line of that device
+     * open at the same time, which exclusive hardware devices refuse: the audioProcessor is then
+     * stopped and started again instead.
+     */
+    private void reconfigureProcessor() {
+        // A pipeline has fixed frames, it is started again with the new settings
+        if (this.pipeline != null) {
+            stopProcessor();
+            startProcessor();
+            return;
+        }
+        if (this.audioProcessor == null || !this.audioProcessor.isRunning()) return;
+
+        String inputMixer = MixerFromToolBar(this.toolBar, "Input Device : ");
+        String outputMixer = MixerFromToolBar(this.toolBar, "Output Device : ");
+        AudioFormat previousInputFormat = this.inputFormat;
+        AudioFormat previousOutputFormat = this.outputFormat;
+        TargetDataLine audioInput = TargetDataLineFromToolBar(this.toolBar);
+        SourceDataLine audioOutput = SourceDataLineFromToolBar(this.toolBar);
+
+        boolean isSameInput = inputMixer.equals(this.inputMixer);
+        boolean isSameOutput = outputMixer.equals(this.outputMixer);
+        if ((isSameInput && !this.inputFormat.matches(previousInputFormat))
+                || (isSameOutput && !this.outputFormat.matches(previousOutputFormat))) {
+            stopProcessor();
+            startProcessor();
+            return;
+        }
+
+        try {
+            // A line whose device and format did not change is kept as it is
+            if (isSameInput) {
+                audioInput = this.audioProcessor.getAudioInput();
+            } else {
+                openLine(audioInput, this.inputFormat);
+            }
+            if (isSameOutput) {
+                audioOutput = this.audioProcessor.getAudioOutput();
+            } else {
+                openLine(audioOutput, this.outputFormat);
+            }
+            this.audioProcessor.reconfigure(audioInput, audioOutput, FrameSizeFromToolBar(this.toolBar), CROSSFADE);
+            updatePitchDetector();
+            updateAnalyzer();
+        } catch (LineUnavailableException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.inputMixer = inputMixer;
+        this.outputMixer = outputMixer;
+    }
+
+    /** Gives the audioProcessor a pitch detector at the rate of the input, unless it already has one. */
+    private void updatePitchDetector() {
+        float sampleRate = this.inputFormat.getSampleRate();
+        PitchDetector pitchDetector = this.audioProcessor.getPitchDetector();
+        if (pitchDetector == null || pitchDetector.getSampleRate() != sampleRate) {
+            this.audioProcessor.setPitchDetector(new PitchDetector(2048, (int) (PITCH_HOP * sampleRate), sampleRate));
+        }
+    }
+
+    /**
+     * Creates the analyzer behind the spectrograms at the rate of the input, unless it already has
+     * that rate: windowed spectra every SPECTRUM_HOP, whatever the frame size, in the precision of the
+     * audioProcessor. The audioProcessor only gets it while a spectrogram is shown, see showAnalyzer().
+     */
+    private void updateAnalyzer() {
+        float sampleRate = this.inputFormat.getSampleRate();
+        if (inputAnalyzer == null || inputAnalyzer.getSampleRate() != sampleRate) {
+            inputAnalyzer = new STFTAnalyzer(SPECTRUM_FFT_SIZE, (int) (SPECTRUM_HOP * sampleRate), Window.HANN, sampleRate,
+                    this.audioProcessor.getPrecision());
+            if (this.audioProcessor.getAnalyzer() != null) {
+                this.audioProcessor.setAnalyzer(inputAnalyzer);
+            }
+            if (this.inputSpectrum != null) {
+                this.inputSpectrum.setAnalyzer(inputAnalyzer);
+            }
+        }
+    }
+
+    /**
+     * Feeds the analyzer from the audio thread while at least one spectrogram is shown, and stops it
+     * otherwise: with the window minimized or the views hidden, the audio thread computes no spectrum.
+     */
+    private void showAnalyzer(boolean isShown) {
+        STFTAnalyzer analyzer = isShown ? inputAnalyzer : null;
+        if (this.audioProcessor.getAnalyzer() != analyzer) {
+            this.audioProcessor.setAnalyzer(analyzer);
+        }
+    }
+
+    /** Opens and starts a line, with the buffer size chosen by the frame size controller if there is one. */
+    private void openLine(DataLine line, AudioFormat format) throws LineUnavailableException {
+        FrameSizeController controller = this.audioProcessor.getFrameSizeController();
+        int bufferSize = controller != null ? controller.getLineBufferSize(format.getFrameSize()) : AudioSystem.NOT_SPECIFIED;
+        if (line instanceof TargetDataLine) {
+            ((TargetDataLine) line).open(format, bufferSize);
+        } else {
+            ((SourceDataLine) line).open(format, bufferSize);
+        }
+        line.start();
     }
 
     /**
@@ -91,26 +271,14 @@ public class Main extends Application {
         Button button = new Button("Start");
         button.setOnAction(event -> {
             if(button.getText() == "Start") {
-                updateProcessor();
-
-                try {
-                    this.audioProcessor.getAudioOutput().open(this.audioFormat);
-                    this.audioProcessor.getAudioOutput().start();
-                    this.audioProcessor.getAudioInput().open(this.audioFormat);
-                    this.audioProcessor.getAudioInput().start();
-                } catch (LineUnavailableException e) {
-                    throw new RuntimeException(e);
-                }
-
-                System.out.println("Starting the audioProcessor !");
+                startProcessor();
                 button.setText("Stop");
-                new Thread(audioProcessor).start();
 
             } else if(button.getText() == "Stop") {
 
                 System.out.println("Stopping the audioProcessor !");
                 button.setText("Start");
-                audioProcessor.terminateAudioThread();
+                stopProcessor();
 
             }
         });
@@ -120,15 +288,26 @@ public class Main extends Application {
         ComboBox<String> cbInputs = new ComboBox<>();
         ComboBox<String> cbOutputs = new ComboBox<>();
         TextField frameSizeTextField = new TextField("1024");
+        TextField channelsTextField = new TextField("1");
+        CheckBox adaptiveCheckBox = new CheckBox("Adaptive");
+        adaptiveCheckBox.setDisable(isPipelined); // AudioPipeline has fixed frames
 
         Label Input = new Label("Input Device : ");
         Label Output = new Label("Output Device : ");
         Label FrameSize = new Label("FrameSize : ");
+        Label Channels = new Label("Channels : ");
 
         // Adding our Label, ComboBox, Separator to the toolbar for each variable the user can change
         tb.getItems().addAll(new Separator(), Input, cbInputs);
         tb.getItems().addAll(new Separator(), Output, cbOutputs);
-        tb.getItems().addAll(new Separator(), FrameSize, frameSizeTextField);
+        tb.getItems().addAll(new Separator(), FrameSize, frameSizeTextField, adaptiveCheckBox);
+        tb.getItems().addAll(new Separator(), Channels, channelsTextField);
+
+        // While running, changing a device, the frame size or the channels does not stop the sound
+        cbInputs.setOnAction(event -> reconfigureProcessor());
+        cbOutputs.setOnAction(event -> reconfigureProcessor());
+        frameSizeTextField.setOnAction(event -> reconfigureProcessor());
+        channelsTextField.setOnAction(event -> reconfigureProcessor());
 
         // Gets all the mixer that are able to Capture or Play Audio
         AudioIO.getAudioMixers().stream().filter(e -> e.getDescription().contains("Capture")).forEach(e -> cbInputs.getItems().add(e.getName()));
@@ -141,13 +320,39 @@ public class Main extends Application {
         return tb;
     }
 
-    // Vestige
     /**
-     * Create the statusbar that is later on displayed at the bottom of the window
+     * Create the statusbar that is later on displayed at the bottom of the window. It shows the
+     * metrics of the audio loop over the last second: processing times against the frame duration,
+     * late frames, xruns, line buffer levels and latency. The pitch of the input is updated at each screen refresh.
      */
     private Node createStatusbar(){
         HBox statusbar = new HBox();
-        statusbar.getChildren().addAll(new Label("Name:"), new TextField(" Input your desire !"));
+        Label metricsLabel = new Label("Audio metrics : not started");
+        Label pitchLabel = new Label("Pitch : -");
+        pitchLabel.setMinWidth(200);
+        statusbar.getChildren().addAll(pitchLabel, new Separator(), metricsLabel);
+
+        new AnimationTimer() {
+            private AudioMetrics.Snapshot previous;
+            private final FrameExchange.Frame pitch = new FrameExchange.Frame();
+
+            @Override
+            public void handle(long now) {
+                PitchDetector pitchDetector = audioProcessor.getPitchDetector();
+                if (pitchDetector != null && pitchDetector.getResults().readLatest(pitch) != 0) {
+                    double[] result = pitch.getSamples();
+                    pitchLabel.setText(result[PitchDetector.CLARITY] < MIN_CLARITY ? "Pitch : -"
+                            : String.format("Pitch : %.1f Hz (clarity %.2f)", result[PitchDetector.FREQUENCY], result[PitchDetector.CLARITY]));
+                }
+
+                if (previous != null && now - previous.getTimeNanos() < 1_000_000_000L) return;
+                AudioMetrics.Snapshot current = audioProcessor.getMetrics().snapshot();
+                if (previous != null && current.getFrames() > previous.getFrames()) {
+                    metricsLabel.setText("Audio metrics : " + current.since(previous).summary());
+                }
+                previous = current;
+            }
+        }.start();
         return statusbar;
     }
 
@@ -158,9 +363,17 @@ public class Main extends Application {
         SignalView inputSignalView = new SignalView(audioProcessor.getInputSignal(), "Input Signal");
         SignalView outputSignalView = new SignalView(audioProcessor.getOutputSignal(), "Output Signal");
         VuMeter vuMeter = new VuMeter(50, 200, audioProcessor.getInputSignal());
-        Spectrogram spectrogram = new Spectrogram(400, 200, audioProcessor.getInputSignal(), audioProcessor.getAudioInput().getFormat().getSampleRate());
-        Spectrogram spectrogramZoom = new Spectrogram(400, 200, audioProcessor.getInputSignal(), audioProcessor.getAudioInput().getFormat().getSampleRate());
+        inputSpectrum = new SpectrumCache(inputAnalyzer); // one FFT per hop for both views
+        Spectrogram spectrogram = new Spectrogram(400, 200, inputSpectrum);
+        Spectrogram spectrogramZoom = new Spectrogram(400, 200, inputSpectrum);
         spectrogramZoom.setFrequencyRange(20, 4000);
+        spectrogramZoom.setScale(FrequencyScale.LOG);
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                showAnalyzer(spectrogram.isShown() || spectrogramZoom.isShown());
+            }
+        }.start();
 
 
         HBox hbox1 = new HBox(inputSignalView, outputSignalView, vuMeter); // First line of widget
@@ -206,10 +419,13 @@ public class Main extends Application {
 
     private TargetDataLine TargetDataLineFromToolBar(ToolBar toolBar) {
         ComboBox comboBox = getComboBoxFromToolBar(toolBar, "Input Device : ");
+        Mixer.Info mixerInfo = AudioIO.getMixerInfo((String) comboBox.getValue());
+        // TODO - Change HardCoded Rate to Interface-defined
+        this.inputFormat = AudioIO.negotiateFormat(mixerInfo, TargetDataLine.class, 44000.0f, ChannelsFromToolBar(toolBar));
         TargetDataLine targetDataLine;
         try {
-            targetDataLine = AudioSystem.getTargetDataLine(this.audioFormat, AudioIO.getMixerInfo((String) comboBox.getValue()));
-        } catch (LineUnavailableException e) {
+            targetDataLine = AudioSystem.getTargetDataLine(this.inputFormat, mixerInfo);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
             targetDataLine = null;
             System.out.println("TargetDataLine Unavailable !");
         }
@@ -217,18 +433,43 @@ public class Main extends Application {
     }
     private SourceDataLine SourceDataLineFromToolBar(ToolBar toolBar) {
         ComboBox comboBox = getComboBoxFromToolBar(toolBar, "Output Device : ");
+        Mixer.Info mixerInfo = AudioIO.getMixerInfo((String) comboBox.getValue());
+        // The output plays at the rate of the input, in its own native sample format
+        this.outputFormat = AudioIO.negotiateFormat(mixerInfo, SourceDataLine.class, this.inputFormat.getSampleRate(), ChannelsFromToolBar(toolBar));
+        float inputRate = this.inputFormat.getSampleRate();
+        if (this.outputFormat.getSampleRate() != inputRate) {
+            // The mixer may accept the rate of the input without declaring it
+            AudioFormat atInputRate = new AudioFormat(this.outputFormat.getEncoding(), inputRate,
+                    this.outputFormat.getSampleSizeInBits(), this.outputFormat.getChannels(),
+                    this.outputFormat.getFrameSize(), inputRate, this.outputFormat.isBigEndian());
+            if (AudioSystem.getMixer(mixerInfo).isLineSupported(new DataLine.Info(SourceDataLine.class, atInputRate))) {
+                this.outputFormat = atInputRate;
+            } else {
+                System.out.println("Input at " + inputRate + " Hz, output at " + this.outputFormat.getSampleRate()
+                        + " Hz: the sound will play at the wrong pitch !");
+            }
+        }
         SourceDataLine sourceDataLine;
         try {
-            sourceDataLine = AudioSystem.getSourceDataLine(this.audioFormat, AudioIO.getMixerInfo((String) comboBox.getValue()));
-        } catch (LineUnavailableException e) {
+            sourceDataLine = AudioSystem.getSourceDataLine(this.outputFormat, mixerInfo);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
             sourceDataLine = null;
             System.out.println("SourceDataLine Unavailable !");
         }
         return sourceDataLine;
     }
+    private String MixerFromToolBar(ToolBar toolBar, String labelText) {
+        return (String) getComboBoxFromToolBar(toolBar, labelText).getValue();
+    }
     private int FrameSizeFromToolBar(ToolBar toolBar) {
         return Integer.valueOf(getTextFieldFromToolBar(toolBar, "FrameSize : ").getText());
     }
+    private boolean AdaptiveFromToolBar(ToolBar toolBar) {
+        return toolBar.getItems().stream().anyMatch(item -> item instanceof CheckBox && ((CheckBox) item).isSelected());
+    }
+    private int ChannelsFromToolBar(ToolBar toolBar) {
+        return Integer.valueOf(getTextFieldFromToolBar(toolBar, "Channels : ").getText());
+    }
 
     private ComboBox getComboBoxFromToolBar(ToolBar toolBar, String labelText) {
         boolean comboBoxFound = false;
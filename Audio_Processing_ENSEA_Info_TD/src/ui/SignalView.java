@@ -1,51 +1,42 @@
 package ui;
 
 import audio.AudioSignal;
+import audio.FrameExchange;
 import javafx.animation.AnimationTimer;
-import javafx.scene.chart.LineChart;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
 
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Oscilloscope view of an AudioSignal. When the frame holds more samples than the view has pixel
+ * columns, each column shows the min and max of the samples it covers, so the drawing cost depends
+ * on the width of the view and not on the frame size. The polyline is built in a preallocated
+ * vertex array and only redrawn when a new frame has been published.
+ */
+public class SignalView extends Canvas {
+    private static final double MARGIN = 20; // room for the title and the axis
 
-public class SignalView extends LineChart<Number, Number>{
-    private XYChart.Series<Number, Number> series;
     private AudioSignal audioSignal;
-    public SignalView(AudioSignal audioSignal, String title) {
-        super(new NumberAxis(), new NumberAxis());
-        this.audioSignal = audioSignal;
+    private final String title;
+    private final FrameExchange.Frame frame = new FrameExchange.Frame(); // last frame read from the audio thread
+    private long drawnSequence; // sequence number of the frame on screen
 
-        // Set chart properties
-        setTitle(title);
-        getXAxis().setLabel("Index");
-        getYAxis().setLabel("Value");
-
-        // Disable symbol creation for the LineChart
-        this.setCreateSymbols(false);
-
-        getYAxis().setAutoRanging(false); // Turn off auto-ranging
-        ((NumberAxis) getYAxis()).setLowerBound(-1);
-        ((NumberAxis) getYAxis()).setUpperBound(1);
-
-        // Create data series
-        series = new XYChart.Series<>();
-        series.setName("Data Series");
-
-        // Add data points to the series
-        {
-            AtomicInteger i = new AtomicInteger(0);
-            Arrays.stream(audioSignal.getSampleBuffer()).forEach(e -> {
-                series.getData().add(new XYChart.Data<>(i, e));
-                i.getAndIncrement();
-            });
-        }
+    // Vertices of the polyline, two per pixel column
+    private double[] xPoints = new double[0];
+    private double[] yPoints = new double[0];
 
-        // Add the series to the chart
-        getData().add(series);
+    public SignalView(AudioSignal audioSignal, String title) {
+        this(500, 400, audioSignal, title);
+    }
 
+    public SignalView(double width, double height, AudioSignal audioSignal, String title) {
+        super(width, height);
+        this.audioSignal = audioSignal;
+        this.title = title;
 
-        // Set up an AnimationTimer to periodically update the chart
+        drawAxes(getGraphicsContext2D());
+
+        // Set up an AnimationTimer to periodically update the view
         new AnimationTimer() {
             @Override
             public void handle(long now) {
@@ -55,17 +46,82 @@ public class SignalView extends LineChart<Number, Number>{
     }
 
     public void updateData(AudioSignal audioSignal) {
-        // Clear existing data
-        series.getData().clear();
-
-        // Add data points to the series
-        {
-            double[] sampleBuffer = audioSignal.getSampleBuffer();
-            for (int i = 0; i < sampleBuffer.length; i++) {
-                series.getData().add(new XYChart.Data<>(i, sampleBuffer[i]));
+        // Nothing to do if the audio thread has not published a new frame
+        if (audioSignal.getFrames().readLatest(frame) == drawnSequence) {
+            return;
+        }
+        drawnSequence = frame.getSequence();
+
+        int vertices = buildPolyline(frame.getSamples(), frame.getLength());
+
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        drawAxes(gc);
+
+        gc.setStroke(Color.BLUE);
+        gc.setLineWidth(1.0);
+        gc.strokePolyline(xPoints, yPoints, vertices);
+    }
+
+    /**
+     * Fills xPoints and yPoints with the shape of the signal.
+     * @return the number of vertices
+     */
+    private int buildPolyline(double[] samples, int length) {
+        int columns = Math.max(1, (int) (getWidth() - 2 * MARGIN));
+        if (xPoints.length < 2 * columns) {
+            xPoints = new double[2 * columns];
+            yPoints = new double[2 * columns];
+        }
+
+        if (length <= columns) {
+            // Fewer samples than pixels, one vertex per sample
+            double step = length > 1 ? (double) columns / (length - 1) : 0;
+            for (int i = 0; i < length; i++) {
+                xPoints[i] = MARGIN + i * step;
+                yPoints[i] = toY(samples[i]);
             }
+            return length;
         }
+
+        // One min/max pair per pixel column, the polyline goes up and down each column
+        int vertices = 0;
+        for (int column = 0; column < columns; column++) {
+            int start = (int) ((long) column * length / columns);
+            int end = (int) ((long) (column + 1) * length / columns);
+            double min = samples[start];
+            double max = samples[start];
+            for (int i = start + 1; i < end; i++) {
+                double sample = samples[i];
+                if (sample < min) min = sample;
+                if (sample > max) max = sample;
+            }
+
+            double x = MARGIN + column;
+            // Alternate the order so that consecutive columns are joined by their nearest ends
+            boolean up = (column & 1) == 0;
+            xPoints[vertices] = x;
+            yPoints[vertices++] = toY(up ? min : max);
+            xPoints[vertices] = x;
+            yPoints[vertices++] = toY(up ? max : min);
+        }
+        return vertices;
     }
 
+    /** @return the vertical position of a sample, the view shows values from -1 to 1 */
+    private double toY(double sample) {
+        double clamped = Math.max(-1, Math.min(1, sample));
+        double middle = (getHeight() + MARGIN) / 2;
+        return middle - clamped * (getHeight() - MARGIN) / 2;
+    }
 
+    private void drawAxes(GraphicsContext gc) {
+        gc.setFill(Color.BLACK);
+        gc.fillText(title, MARGIN, MARGIN - 5);
+
+        gc.setStroke(Color.GRAY);
+        gc.setLineWidth(1.0);
+        gc.strokeLine(MARGIN, toY(0), getWidth() - MARGIN, toY(0));
+        gc.strokeLine(MARGIN, toY(1), MARGIN, toY(-1));
+    }
 }
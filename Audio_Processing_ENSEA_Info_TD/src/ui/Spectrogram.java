@@ -3,22 +3,86 @@ package ui;
 import javafx.animation.AnimationTimer;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
-import audio.AudioSignal;
-import math.Complex;
-
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import audio.STFTAnalyzer;
+import audio.SpectrumCache;
+import math.FilterBank;
+import math.FrequencyScale;
+
+import java.util.Arrays;
+
+/**
+ * A scrolling time-frequency waterfall of the spectra of an {@link STFTAnalyzer}, windowed and
+ * hopped by the audio thread: each new spectrum becomes one column of pixels, low
+ * frequencies at the bottom, the newest column on the right, so the time axis is the hop of the
+ * analyzer whatever the screen refresh rate. The columns are written into a WritableImage used as a
+ * ring, the column after the last one written being the oldest: a spectrum costs the computation and
+ * the upload of one column, and a refresh two drawImage() of the two parts of the ring, whatever the
+ * number of bins. The frequency labels are only drawn when the range changes.
+ * The rows are the bands of a {@link FrequencyScale}, computed from the bins by a cached
+ * {@link FilterBank}: changing the scale, which a click on the view does, costs no computation once
+ * each scale has been seen.
+ */
 public class Spectrogram extends Canvas {
-    private AudioSignal audioSignal;
+    private static final double MARGIN = 50; // left of the image, for the frequency labels
+    private static final double MIN_DB = -90; // level of the first color of the colormap
+    private static final double MAX_DB = 0;
+    private static final int[] COLORMAP = colormap(256);
+
+    private SpectrumCache spectrum; // may be shared with other views of the same signal
+    private STFTAnalyzer drawnAnalyzer; // the analyzer of drawnSequence
+    private long drawnSequence; // sequence number of the last spectrum written
     private double minFrequency;
-    private double maxFrequency;
-    private float sampleRate;
+    private double maxFrequency; // above the Nyquist frequency for the whole spectrum
+
+    private final WritableImage image;
+    private final PixelWriter pixelWriter;
+    private final int columns, rows;
+    private final int[] column; // ARGB pixels of the column being written, top first
+    private int nextColumn; // where the next spectrum goes in the ring, also the oldest column
+
+    private FrequencyScale scale = FrequencyScale.LINEAR;
+    private FilterBank filterBank; // one band per row, for mappedFFTSize
+    private final double[] bands; // the band of row y is bands[rows-1-y]
+    private int mappedFFTSize;
+
+    public Spectrogram(double width, double height, STFTAnalyzer analyzer) {
+        this(width, height, new SpectrumCache(analyzer));
+    }
 
-    public Spectrogram(double width, double height, AudioSignal audioSignal, float sampleRate) {
+    /**
+     * @param spectrum the spectra to display, give the same instance to every view of a signal
+     *                 so that each spectrum is read only once
+     */
+    public Spectrogram(double width, double height, SpectrumCache spectrum) {
         super(width, height);
-        this.audioSignal = audioSignal;
-        this.sampleRate = sampleRate;
+        this.spectrum = spectrum;
         this.minFrequency = 0;
-        this.maxFrequency = sampleRate / 2.0; // Nyquist frequency
+        this.maxFrequency = Double.MAX_VALUE; // up to the Nyquist frequency
+
+        columns = (int) (width - MARGIN);
+        rows = (int) height;
+        image = new WritableImage(columns, rows);
+        pixelWriter = image.getPixelWriter();
+        column = new int[rows];
+        bands = new double[rows];
+
+        // Start from the color of silence
+        Arrays.fill(column, COLORMAP[0]);
+        for (int x = 0; x < columns; x++) {
+            pixelWriter.setPixels(x, 0, 1, rows, PixelFormat.getIntArgbInstance(), column, 0, 1);
+        }
+        drawLabels();
+
+        setOnMouseClicked(event -> {
+            FrequencyScale[] scales = FrequencyScale.values();
+            setScale(scales[(scale.ordinal() + 1) % scales.length]);
+        });
 
         new AnimationTimer() {
             @Override
@@ -28,62 +92,129 @@ public class Spectrogram extends Canvas {
         }.start();
     }
 
+    /** Shows the frequencies of a range, limited to the Nyquist frequency of the analyzer. */
     public void setFrequencyRange(double minFrequency, double maxFrequency) {
         this.minFrequency = Math.max(0, minFrequency);
-        this.maxFrequency = Math.min(this.sampleRate / 2.0, maxFrequency);
+        this.maxFrequency = maxFrequency;
+        this.mappedFFTSize = 0; // map the rows again with the new range
+        drawLabels();
+    }
+
+    public void setScale(FrequencyScale scale) {
+        this.scale = scale;
+        this.mappedFFTSize = 0;
+        drawLabels();
+    }
+
+    public FrequencyScale getScale() {
+        return scale;
+    }
+
+    /** @return whether the view is on screen: visible, in a window that is showing and not minimized */
+    public boolean isShown() {
+        if (!isVisible() || getScene() == null) return false;
+        Window window = getScene().getWindow();
+        return window != null && window.isShowing() && !(window instanceof Stage && ((Stage) window).isIconified());
     }
 
     public void update() {
-        GraphicsContext gc = getGraphicsContext2D();
+        // A hidden view does not read the spectra
+        if (!isShown()) {
+            return;
+        }
 
-        // Perform FFT on the audio signal
-        Complex[] fftResult = audioSignal.computeFFT();
+        // Another analyzer (other sample rate) numbers its spectra from 1 again
+        if (spectrum.getAnalyzer() != drawnAnalyzer) {
+            drawnAnalyzer = spectrum.getAnalyzer();
+            drawnSequence = 0;
+            mappedFFTSize = 0;
+            drawLabels();
+        }
+
+        // Nothing to draw until the audio thread has published a spectrum, nor if it is already drawn
+        long latest = spectrum.getLatestSequence();
+        if (latest == 0 || latest == drawnSequence) {
+            return;
+        }
+
+        int fftSize = spectrum.getFFTSize();
+        if (fftSize != mappedFFTSize) {
+            filterBank = FilterBank.of(scale, fftSize, spectrum.getSampleRate(), rows, minFrequency, getMaxFrequency());
+            mappedFFTSize = fftSize;
+        }
 
-        // Clear the canvas
-        gc.clearRect(0, 0, getWidth(), getHeight());
+        // One column per spectrum published since the last refresh, no more than the image holds.
+        // The spectra no longer kept (the view was hidden, or very late) are skipped.
+        for (long sequence = Math.max(drawnSequence + 1, latest - columns + 1); sequence <= latest; sequence++) {
+            if (spectrum.load(sequence)) {
+                writeColumn(spectrum.getMagnitudes());
+            }
+        }
+        drawnSequence = latest;
 
-        // Draw the FFT coefficients on the y-axis
-        drawSpectrogram(gc, fftResult);
+        // The oldest part of the ring on the left, the newest on the right
+        GraphicsContext gc = getGraphicsContext2D();
+        int oldest = columns - nextColumn;
+        gc.drawImage(image, nextColumn, 0, oldest, rows, MARGIN, 0, oldest, rows);
+        gc.drawImage(image, 0, 0, nextColumn, rows, MARGIN + oldest, 0, nextColumn, rows);
     }
 
-    private void drawSpectrogram(GraphicsContext gc, Complex[] fftResult) {
-        double sampleRate = this.sampleRate;
-        double scaleX = getWidth() / (maxFrequency - minFrequency);
-        double scaleY = getHeight() / 50; // Scale the values for visualization
+    /** @return the highest frequency shown, in Hz */
+    private double getMaxFrequency() {
+        return Math.min(maxFrequency, spectrum.getSampleRate() / 2.0);
+    }
 
-        // Draw y-axis
-        gc.setStroke(Color.BLACK);
-        gc.setLineWidth(2.0);
-        gc.strokeLine(40, 0, 40, getHeight()); // Adjust the position of the y-axis
+    /** Converts the bands of the spectrum into colors, and writes the column. */
+    private void writeColumn(double[] magnitudes) {
+        filterBank.apply(magnitudes, bands);
+        // A full scale sine is at 0 dB, whatever the window
+        double gain = spectrum.getAmplitudeScale();
+        double colorsPerdB = (COLORMAP.length - 1) / (MAX_DB - MIN_DB);
+        for (int y = 0; y < rows; y++) {
+            // Row 0 is the top of the image, the highest band
+            double dB = 20 * Math.log10(bands[rows - 1 - y] * gain + 1e-12);
+            int index = (int) ((dB - MIN_DB) * colorsPerdB);
+            column[y] = COLORMAP[Math.max(0, Math.min(COLORMAP.length - 1, index))];
+        }
+        pixelWriter.setPixels(nextColumn, 0, 1, rows, PixelFormat.getIntArgbInstance(), column, 0, 1);
+        nextColumn = nextColumn + 1 == columns ? 0 : nextColumn + 1;
+    }
 
-        // Draw y-axis labels
+    /** Draws the frequency of a few rows in the margin, evenly spaced on the scale, and the name of the scale. */
+    private void drawLabels() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.clearRect(0, 0, MARGIN, getHeight());
         gc.setFill(Color.BLACK);
-        gc.fillText("Magnitude", 10, 20);
-
-        // Draw x-axis labels
-        gc.fillText(String.format("%.2f Hz", minFrequency), 40, getHeight() + 20);
-        gc.fillText(String.format("%.2f kHz", maxFrequency / 1000), getWidth() - 40, getHeight() + 20);
-
-        // Draw the FFT coefficients on the y-axis
-        gc.setStroke(Color.BLUE);
-        gc.setLineWidth(40 * scaleX);
-
-        int startIndex = (int) (minFrequency * fftResult.length / sampleRate);
-        int endIndex = (int) (maxFrequency * fftResult.length / sampleRate);
-
-        for (int i = startIndex; i < endIndex; i++) {
-            double frequency = i * sampleRate / fftResult.length;
-            double value = fftResult[i].abs();
-            double x = (frequency - minFrequency) * scaleX + 40; // Adjust the position of the x-axis
-            double y = getHeight() - value * scaleY; // Flip y-axis for better visualization
-            gc.strokeLine(x, getHeight(), x, y);
-
-            // Draw y-axis labels
-            if (i % 20 == 0) {
-                gc.setFill(Color.BLACK);
-                if (value > 2.0f)
-                    gc.fillText(String.format("%.2f", value), 10, y);
+        double low = scale.toScale(minFrequency);
+        double high = scale.toScale(getMaxFrequency());
+        for (int i = 0; i <= 4; i++) {
+            double frequency = scale.fromScale(low + (high - low) * i / 4);
+            double y = getHeight() - i * (getHeight() - 10) / 4;
+            String text = frequency >= 1000 ? String.format("%.1f kHz", frequency / 1000) : String.format("%.0f Hz", frequency);
+            gc.fillText(text, 2, y - 2);
+        }
+        // Between the two top labels
+        gc.fillText(scale.name().toLowerCase(), 2, getHeight() - 3.5 * (getHeight() - 10) / 4 - 2);
+    }
+
+    /**
+     * @return ARGB colors from black through purple, red and orange to light yellow, close to
+     * the "inferno" colormap, so that the levels read in order of brightness
+     */
+    private static int[] colormap(int size) {
+        double[][] stops = {{0, 0, 0.02}, {0.34, 0.06, 0.43}, {0.73, 0.21, 0.33}, {0.98, 0.55, 0.04}, {0.99, 1, 0.64}};
+        int[] colors = new int[size];
+        for (int i = 0; i < size; i++) {
+            double position = (double) i / (size - 1) * (stops.length - 1);
+            int stop = Math.min(stops.length - 2, (int) position);
+            double t = position - stop;
+            int argb = 0xFF;
+            for (int c = 0; c < 3; c++) {
+                double value = stops[stop][c] + t * (stops[stop + 1][c] - stops[stop][c]);
+                argb = (argb << 8) | (int) Math.round(255 * value);
             }
+            colors[i] = argb;
         }
+        return colors;
     }
 }
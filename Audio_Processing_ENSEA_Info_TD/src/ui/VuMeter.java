@@ -1,6 +1,7 @@
 package ui;
 
 import audio.AudioSignal;
+import audio.FrameExchange;
 import javafx.animation.AnimationTimer;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
@@ -9,6 +10,7 @@ import javafx.scene.paint.Color;
 public class VuMeter extends Canvas {
     private double signalLevel; // Should be between 0 and 1
     private AudioSignal audioSignal;
+    private final FrameExchange.Frame frame = new FrameExchange.Frame(); // last frame read from the audio thread
     private double factor;
     private double maxWidth;
     private double maxHeight;
@@ -41,8 +43,9 @@ public class VuMeter extends Canvas {
     public void update() {
         GraphicsContext gc = getGraphicsContext2D();
 
-        // Get the dBLevel and calculate the height of the display bar
-        this.signalLevel = Math.max(0, Math.min(1, Math.abs((this.audioSignal.getdBlevel() + 45) / 40)  * factor));
+        // Get the dBLevel of the last published frame and calculate the height of the display bar
+        this.audioSignal.getFrames().readLatest(frame);
+        this.signalLevel = Math.max(0, Math.min(1, Math.abs((frame.getdBlevel() + 45) / 40)  * factor));
         double rectHeight = signalLevel * maxHeight;
 
         // Clear the canvas